@@ -0,0 +1,239 @@
+package uk.ac.ucl.bag.benchmarks;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import uk.ac.ucl.bag.Bag;
+import uk.ac.ucl.bag.BagException;
+import uk.ac.ucl.bag.BagFactory;
+import uk.ac.ucl.bag.BagProvider;
+
+/**
+ * The Bag operations benchmarked against each implementation. The subclasses choose which bag classes and key
+ * types are combined, as not every bag can hold every type of key.
+ *
+ * Each trial builds a workload: a sequence of keys of the chosen type, drawn from the chosen number of
+ * distinct values with the chosen skew. The bag under test starts with every distinct value once plus every
+ * key in the workload, and the single-value operations cycle through the workload, so a skewed workload
+ * mostly hits the few most frequent values, as real counting does. A second bag built from a different
+ * workload is the argument to the merges.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class AbstractBagBenchmarks
+{
+  // The number of keys in a workload.
+  private static final int WORKLOAD_LENGTH = 1 << 16;
+
+  @Param({"100", "10000"})
+  public int distinct;
+
+  @Param({"UNIFORM", "ZIPF"})
+  public Skew skew;
+
+  private BagFactory<Comparable> factory;
+  private String bagClass;
+  private KeyType keyType;
+  private Comparable[] workload;
+  private Bag<Comparable> bag;
+  private Bag<Comparable> other;
+  private int next = 0;
+
+  /**
+   * Return the name of the bag class to benchmark in this trial.
+   * @return The name of the class, as given to BagFactory.setBagClass.
+   */
+  protected abstract String bagClass();
+
+  /**
+   * Return the type of key to store in the bags in this trial.
+   * @return The key type.
+   */
+  protected abstract KeyType keyType();
+
+  @Setup(Level.Trial)
+  public void setUp() throws BagException
+  {
+    bagClass = bagClass();
+    keyType = keyType();
+    factory = BagFactory.getInstance();
+    BagProvider provider = null;
+    for (BagProvider candidate : factory.getProviders())
+    {
+      if (candidate.name().equals(bagClass))
+      {
+        provider = candidate;
+      }
+    }
+    if (provider == null)
+    {
+      throw new IllegalArgumentException("The BagFactory has no bag class called " + bagClass);
+    }
+    factory.setBagClass(bagClass);
+
+    Comparable[] keys = new Comparable[distinct];
+    for (int i = 0 ; i < distinct ; i++)
+    {
+      keys[i] = keyType.key(i);
+    }
+    workload = workload(keys, new Random(1));
+    bag = build(keys, workload);
+    other = build(keys, workload(keys, new Random(2)));
+  }
+
+  /*
+    Bags holding direct buffers, such as OffHeapBag, are closed at the end of each trial so that their memory
+    is freed at once rather than building up until the garbage collector finds them.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception
+  {
+    release(bag);
+    release(other);
+  }
+
+  private static int release(Bag<Comparable> used) throws Exception
+  {
+    int size = used.size();
+    if (used instanceof AutoCloseable)
+    {
+      ((AutoCloseable) used).close();
+    }
+    return size;
+  }
+
+  private Comparable[] workload(Comparable[] keys, Random random)
+  {
+    int[] sample = skew.sample(distinct, WORKLOAD_LENGTH, random);
+    Comparable[] sequence = new Comparable[WORKLOAD_LENGTH];
+    for (int i = 0 ; i < WORKLOAD_LENGTH ; i++)
+    {
+      sequence[i] = keys[sample[i]];
+    }
+    return sequence;
+  }
+
+  private Bag<Comparable> build(Comparable[] keys, Comparable[] sequence) throws BagException
+  {
+    Bag<Comparable> built = factory.getBag();
+    for (Comparable key : keys)
+    {
+      built.add(key);
+    }
+    for (Comparable key : sequence)
+    {
+      built.add(key);
+    }
+    return built;
+  }
+
+  private Comparable nextKey()
+  {
+    Comparable key = workload[next];
+    next = (next + 1) & (WORKLOAD_LENGTH - 1);
+    return key;
+  }
+
+  @Benchmark
+  public void add() throws BagException
+  {
+    bag.add(nextKey());
+  }
+
+  @Benchmark
+  public int countOf()
+  {
+    return bag.countOf(nextKey());
+  }
+
+  /*
+    The occurrence removed is added straight back, so the bag keeps the same contents throughout. Subtract
+    the time for add to estimate remove alone.
+   */
+  @Benchmark
+  public void removeAndAdd() throws BagException
+  {
+    Comparable key = nextKey();
+    bag.remove(key);
+    bag.add(key);
+  }
+
+  /*
+    Builds a new bag from the whole workload, including the cost of growing it from the default capacity.
+    The result is per key added. This and the merges return the size of the bag they create, having released
+    it.
+   */
+  @Benchmark
+  @OperationsPerInvocation(WORKLOAD_LENGTH)
+  public int buildFromEmpty() throws Exception
+  {
+    Bag<Comparable> built = factory.getBag();
+    for (Comparable key : workload)
+    {
+      built.add(key);
+    }
+    return release(built);
+  }
+
+  @Benchmark
+  public void iterator(Blackhole blackhole)
+  {
+    for (Comparable value : bag)
+    {
+      blackhole.consume(value);
+    }
+  }
+
+  @Benchmark
+  public void allOccurrencesIterator(Blackhole blackhole)
+  {
+    Iterator<Comparable> values = bag.allOccurrencesIterator();
+    while (values.hasNext())
+    {
+      blackhole.consume(values.next());
+    }
+  }
+
+  @Benchmark
+  public void forEachEntry(Blackhole blackhole)
+  {
+    bag.forEachEntry((value, count) ->
+    {
+      blackhole.consume(value);
+      blackhole.consume(count);
+    });
+  }
+
+  @Benchmark
+  public int createMergedAllOccurrences() throws Exception
+  {
+    return release(bag.createMergedAllOccurrences(other));
+  }
+
+  @Benchmark
+  public int createMergedAllUnique() throws Exception
+  {
+    return release(bag.createMergedAllUnique(other));
+  }
+}
@@ -0,0 +1,32 @@
+package uk.ac.ucl.bag.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks every Bag operation against every implementation the BagFactory can create that can hold any
+ * type of key, with every key type.
+ *
+ * ArrayBag takes time linear in the number of distinct values for every lookup, so leave it out when trying a
+ * million distinct values.
+ */
+@State(Scope.Thread)
+public class BagBenchmarks extends AbstractBagBenchmarks
+{
+  @Param({"ArrayBag", "HashBag", "TreeBag", "ConcurrentHashBag", "AdaptiveBag", "RankedBag"})
+  public String bagClass;
+
+  @Param({"STRING", "INTEGER", "LONG", "COMPOSITE"})
+  public KeyType keyType;
+
+  protected String bagClass()
+  {
+    return bagClass;
+  }
+
+  protected KeyType keyType()
+  {
+    return keyType;
+  }
+}
@@ -0,0 +1,24 @@
+package uk.ac.ucl.bag.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The main class of the benchmarks jar. It accepts the usual JMH command line options and adds the GC
+ * profiler, so that every result is reported with its allocation rate (gc.alloc.rate.norm is the number of
+ * bytes allocated per operation).
+ */
+public class BenchmarkRunner
+{
+  public static void main(String[] args) throws Exception
+  {
+    Options options = new OptionsBuilder()
+      .parent(new CommandLineOptions(args))
+      .addProfiler(GCProfiler.class)
+      .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,43 @@
+package uk.ac.ucl.bag.benchmarks;
+
+/**
+ * A two-part key, standing for the record-like keys applications count, such as a (region, id) pair. It has
+ * a hashCode and equals consistent with compareTo, as the hashed bags require.
+ */
+public final class CompositeKey implements Comparable<CompositeKey>
+{
+  private final String region;
+  private final int id;
+
+  public CompositeKey(String region, int id)
+  {
+    this.region = region;
+    this.id = id;
+  }
+
+  public int compareTo(CompositeKey other)
+  {
+    int order = region.compareTo(other.region);
+    return order != 0 ? order : Integer.compare(id, other.id);
+  }
+
+  public boolean equals(Object other)
+  {
+    if (!(other instanceof CompositeKey))
+    {
+      return false;
+    }
+    CompositeKey key = (CompositeKey) other;
+    return id == key.id && region.equals(key.region);
+  }
+
+  public int hashCode()
+  {
+    return region.hashCode() * 31 + id;
+  }
+
+  public String toString()
+  {
+    return region + ":" + id;
+  }
+}
@@ -0,0 +1,42 @@
+package uk.ac.ucl.bag.benchmarks;
+
+/**
+ * The kinds of key the benchmarks store in bags. Each creates the key for a number from 0 up to the number
+ * of distinct values, so the same workload can be run with any key type.
+ */
+public enum KeyType
+{
+  STRING
+  {
+    Comparable key(int n)
+    {
+      return "key-" + n;
+    }
+  },
+
+  INTEGER
+  {
+    Comparable key(int n)
+    {
+      return n * 7919;
+    }
+  },
+
+  LONG
+  {
+    Comparable key(int n)
+    {
+      return n * 0x9E3779B97F4A7C15L;
+    }
+  },
+
+  COMPOSITE
+  {
+    Comparable key(int n)
+    {
+      return new CompositeKey("region-" + (n % 64), n / 64);
+    }
+  };
+
+  abstract Comparable key(int n);
+}
@@ -0,0 +1,27 @@
+package uk.ac.ucl.bag.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks every Bag operation against OffHeapBag. A bag created by the BagFactory stores Strings, Integers
+ * and Longs, so it is run with those key types only. The bags are closed at the end of each trial, freeing
+ * their direct buffers.
+ */
+@State(Scope.Thread)
+public class OffHeapBagBenchmarks extends AbstractBagBenchmarks
+{
+  @Param({"STRING", "INTEGER", "LONG"})
+  public KeyType keyType;
+
+  protected String bagClass()
+  {
+    return "OffHeapBag";
+  }
+
+  protected KeyType keyType()
+  {
+    return keyType;
+  }
+}
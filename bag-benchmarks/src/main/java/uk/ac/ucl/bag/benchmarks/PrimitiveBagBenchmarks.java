@@ -0,0 +1,28 @@
+package uk.ac.ucl.bag.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks every Bag operation against the primitive bags, through their Bag views. Each primitive bag can
+ * only hold its own wrapper type, so IntBag is run with INTEGER keys and LongBag with LONG keys. The
+ * parameter has its own name so that choosing a bagClass for BagBenchmarks on the command line leaves these
+ * trials alone.
+ */
+@State(Scope.Thread)
+public class PrimitiveBagBenchmarks extends AbstractBagBenchmarks
+{
+  @Param({"IntBag", "LongBag"})
+  public String primitiveBag;
+
+  protected String bagClass()
+  {
+    return primitiveBag;
+  }
+
+  protected KeyType keyType()
+  {
+    return primitiveBag.equals("IntBag") ? KeyType.INTEGER : KeyType.LONG;
+  }
+}
@@ -0,0 +1,60 @@
+package uk.ac.ucl.bag.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * How often each distinct value occurs in a benchmark workload.
+ */
+public enum Skew
+{
+  /**
+   * Every value is equally likely.
+   */
+  UNIFORM
+  {
+    int[] sample(int distinct, int length, Random random)
+    {
+      int[] sample = new int[length];
+      for (int i = 0 ; i < length ; i++)
+      {
+        sample[i] = random.nextInt(distinct);
+      }
+      return sample;
+    }
+  },
+
+  /**
+   * The value ranked r occurs in proportion to 1/r, as words in text and keys in most real logs do, so a
+   * few values account for most occurrences.
+   */
+  ZIPF
+  {
+    int[] sample(int distinct, int length, Random random)
+    {
+      double[] cumulative = new double[distinct];
+      double sum = 0;
+      for (int rank = 0 ; rank < distinct ; rank++)
+      {
+        sum += 1.0 / (rank + 1);
+        cumulative[rank] = sum;
+      }
+      int[] sample = new int[length];
+      for (int i = 0 ; i < length ; i++)
+      {
+        int found = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+        sample[i] = Math.min(found >= 0 ? found : -found - 1, distinct - 1);
+      }
+      return sample;
+    }
+  };
+
+  /**
+   * Draw a sequence of value numbers, each from 0 to distinct - 1.
+   * @param distinct The number of distinct values.
+   * @param length The length of the sequence.
+   * @param random The source of randomness.
+   * @return The sequence.
+   */
+  abstract int[] sample(int distinct, int length, Random random);
+}
@@ -7,33 +7,505 @@ package uk.ac.ucl.bag;
  * New bag objects are created using a BagFactory, which can be configured in the application
  * setup to select which bag implementation is to be used.
  */
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public abstract class AbstractBag<T extends Comparable> implements Bag<T>
 {
-  public Bag<T> createMergedAllOccurrences(Bag<T> b) throws BagException {
-    Bag<T> result = BagFactory.getInstance().getBag();
-    for (T value : this)
+  /**
+   * Check the capacity and maximum size given when creating a bag.
+   * @param initialCapacity The number of unique values to make room for, which must not be negative.
+   * @param maxSize The maximum number of unique values, which must be at least 1. Use Bag.UNBOUNDED for no limit.
+   * @throws BagException If either value is out of range.
+   */
+  protected static void checkSizes(int initialCapacity, int maxSize) throws BagException
+  {
+    if (maxSize < 1)
     {
-      result.addWithOccurrences(value, this.countOf(value));
+      throw new BagException("Attempting to create a Bag with size less than 1");
     }
-    for (T value : b)
+    if (initialCapacity < 0)
     {
-      result.addWithOccurrences(value, b.countOf(value));
+      throw new BagException("Attempting to create a Bag with a negative initial capacity");
     }
-    return result;
   }
 
-  public Bag<T> createMergedAllUnique(Bag<T> b) throws BagException {
-    Bag<T> result = BagFactory.getInstance().getBag();
-    for (T value : this)
+  /**
+   * Check that a number of occurrences passed to addWithOccurrences is valid.
+   * @param occurrences The number of occurrences.
+   * @throws BagException If the number is negative.
+   */
+  protected static void checkOccurrences(int occurrences) throws BagException
+  {
+    if (occurrences < 0)
+    {
+      throw new BagException("Attempting to add a negative number of occurrences");
+    }
+  }
+
+  /**
+   * Check that a number of occurrences passed to addWithOccurrences is valid.
+   * @param occurrences The number of occurrences.
+   * @throws BagException If the number is negative.
+   */
+  protected static void checkOccurrences(long occurrences) throws BagException
+  {
+    if (occurrences < 0)
+    {
+      throw new BagException("Attempting to add a negative number of occurrences");
+    }
+  }
+
+  /**
+   * Add occurrences to an existing count, failing rather than letting the count wrap round.
+   * @param count The current count.
+   * @param occurrences The number of occurrences to add, which must not be negative.
+   * @return The new count.
+   * @throws BagException If the new count is too large to be stored.
+   */
+  protected static int addToCount(int count, int occurrences) throws BagException
+  {
+    if (count > Integer.MAX_VALUE - occurrences)
+    {
+      throw new BagException("Count overflow");
+    }
+    return count + occurrences;
+  }
+
+  /**
+   * Add occurrences to an existing long count, failing rather than letting the count wrap round.
+   * @param count The current count.
+   * @param occurrences The number of occurrences to add, which must not be negative.
+   * @return The new count.
+   * @throws BagException If the new count is too large to be stored.
+   */
+  protected static long addToCount(long count, long occurrences) throws BagException
+  {
+    if (count > Long.MAX_VALUE - occurrences)
+    {
+      throw new BagException("Count overflow");
+    }
+    return count + occurrences;
+  }
+
+  /**
+   * Return a count as an int, giving Integer.MAX_VALUE for a count too large to fit.
+   * @param count The count.
+   * @return The count as an int.
+   */
+  protected static int saturatedCount(long count)
+  {
+    return (int) Math.min(count, Integer.MAX_VALUE);
+  }
+
+  /*
+    Return the exact count of a value, given the int count reported for it by forEachEntry or a cursor. Only
+    a count of Integer.MAX_VALUE can have been saturated, so only then is the exact count looked up.
+   */
+  static <T extends Comparable> long exactCount(Bag<T> bag, T value, int count)
+  {
+    return count == Integer.MAX_VALUE ? bag.countOfLong(value) : count;
+  }
+
+  /**
+   * Check that a number of occurrences passed to removeOccurrences is valid.
+   * @param n The number of occurrences.
+   * @throws IllegalArgumentException If the number is negative.
+   */
+  protected static void checkRemoveOccurrences(int n)
+  {
+    if (n < 0)
+    {
+      throw new IllegalArgumentException("Attempting to remove a negative number of occurrences");
+    }
+  }
+
+  /**
+   * Check that the number of values asked for from topK is valid.
+   * @param k The number of values.
+   * @throws IllegalArgumentException If the number is negative.
+   */
+  protected static void checkTopK(int k)
+  {
+    if (k < 0)
+    {
+      throw new IllegalArgumentException("Attempting to find a negative number of values");
+    }
+  }
+
+  // Orders entries by count, lowest first.
+  private static final Comparator<BagEntry<?>> BY_COUNT = Comparator.comparingInt(BagEntry::getCount);
+
+  /*
+    Finds the top k values in one pass over the entries. The heap holds the best k entries seen so far with
+    the lowest count at its head, so each later entry only has to beat the head to get in, and an entry object
+    is only created for a value that does.
+   */
+  public List<BagEntry<T>> topK(int k)
+  {
+    checkTopK(k);
+    PriorityQueue<BagEntry<T>> heap = new PriorityQueue<>(Math.max(1, Math.min(k, size())), BY_COUNT);
+    forEachEntry((value, count) ->
+    {
+      if (heap.size() < k)
+      {
+        heap.add(new BagEntry<>(value, count));
+      }
+      else if (k > 0 && count > heap.peek().getCount())
+      {
+        heap.poll();
+        heap.add(new BagEntry<>(value, count));
+      }
+    });
+    List<BagEntry<T>> top = new ArrayList<>(heap);
+    top.sort(BY_COUNT.reversed());
+    return top;
+  }
+
+  public void remove(T value)
+  {
+    removeOccurrences(value, 1);
+  }
+
+  /*
+    removeOccurrences takes an int, so a count too large for an int is removed Integer.MAX_VALUE occurrences
+    at a time. A count that fits in an int is removed by the first call.
+   */
+  public int removeAll(T value)
+  {
+    long removed = 0;
+    int n;
+    do
+    {
+      n = removeOccurrences(value, Integer.MAX_VALUE);
+      removed += n;
+    }
+    while (n == Integer.MAX_VALUE);
+    return saturatedCount(removed);
+  }
+
+  /**
+   * Add occurrences with a long count. This version is for bags that can only store int counts: it passes
+   * the occurrences to addWithOccurrences(T, int), failing if there are too many. The bags that can store
+   * larger counts override it.
+   * @param value The value to add.
+   * @param occurrences The number of occurrences of the value.
+   * @throws BagException If the bag is full, occurrences is negative or the count would become too large.
+   */
+  public void addWithOccurrences(T value, long occurrences) throws BagException
+  {
+    checkOccurrences(occurrences);
+    if (occurrences > Integer.MAX_VALUE)
+    {
+      throw new BagException("Count overflow");
+    }
+    addWithOccurrences(value, (int) occurrences);
+  }
+
+  /**
+   * Return the count of a value as a long. This version is for bags that can only store int counts;
+   * the bags that can store larger counts override it.
+   * @param value The value to look for.
+   * @return The number of occurrences.
+   */
+  public long countOfLong(T value)
+  {
+    return countOf(value);
+  }
+
+  public void addAllWithOccurrences(Map<? extends T, Integer> counts) throws BagException
+  {
+    for (Map.Entry<? extends T, Integer> entry : counts.entrySet())
+    {
+      addWithOccurrences(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Add a value that the caller knows is not already in the bag, skipping the lookup that add would do.
+   * This is used when building a new bag from values that are known to be distinct, for example while
+   * merging two bags. Subclasses override it where the lookup can be skipped; this version just calls
+   * addWithOccurrences.
+   * @param value The value to add, which must not already be in the bag.
+   * @param occurrences The number of occurrences of the value, at least 1.
+   * @throws BagException If the bag is bounded and full.
+   */
+  protected void addNew(T value, int occurrences) throws BagException
+  {
+    addWithOccurrences(value, occurrences);
+  }
+
+  /*
+    Add a value known not to be in the bag, using addNew when the bag is one of ours.
+   */
+  static <T extends Comparable> void addNew(Bag<T> bag, T value, int occurrences) throws BagException
+  {
+    if (bag instanceof AbstractBag)
+    {
+      ((AbstractBag<T>) bag).addNew(value, occurrences);
+    }
+    else
+    {
+      bag.addWithOccurrences(value, occurrences);
+    }
+  }
+
+  /**
+   * Create a Spliterator returning every occurrence of every value. This version takes the runs from
+   * occurrenceCursor, sized by totalOccurrences; subclasses holding their contents in arrays override it with
+   * one that splits evenly.
+   * @return The new Spliterator.
+   */
+  public Spliterator<T> allOccurrencesSpliterator()
+  {
+    return new CursorOccurrenceSpliterator<>(this, occurrenceCursor(), totalOccurrences());
+  }
+
+  /**
+   * Create a Spliterator returning each unique value. This version splits iterator into batches, knowing the
+   * number of values from size; subclasses holding their values in arrays override it to split the arrays.
+   * @return The new Spliterator.
+   */
+  public Spliterator<T> spliterator()
+  {
+    return Spliterators.spliterator(iterator(), size(), Spliterator.ORDERED | Spliterator.DISTINCT);
+  }
+
+  /*
+    Turns an OccurrenceCursor into an iterator of BagEntry objects.
+   */
+  static class CursorEntryIterator<T> implements Iterator<BagEntry<T>>
+  {
+    private final OccurrenceCursor<T> cursor;
+    private boolean ready = false;
+    private boolean more = true;
+
+    public CursorEntryIterator(OccurrenceCursor<T> cursor)
+    {
+      this.cursor = cursor;
+    }
+
+    public boolean hasNext()
+    {
+      if (!ready && more)
+      {
+        more = cursor.advance();
+        ready = true;
+      }
+      return more;
+    }
+
+    public BagEntry<T> next()
+    {
+      if (!hasNext())
+      {
+        throw new NoSuchElementException();
+      }
+      ready = false;
+      return new BagEntry<>(cursor.value(), cursor.count());
+    }
+  }
+
+  /**
+   * Create a Spliterator returning each unique value with its count. This version splits the entries given
+   * by occurrenceCursor into batches; subclasses holding their contents in arrays override it.
+   * @return The new Spliterator.
+   */
+  public Spliterator<BagEntry<T>> entrySpliterator()
+  {
+    return Spliterators.spliterator(new CursorEntryIterator<>(occurrenceCursor()), size(),
+      Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+  }
+
+  public Stream<T> stream()
+  {
+    return StreamSupport.stream(spliterator(), false);
+  }
+
+  public Stream<T> parallelStream()
+  {
+    return StreamSupport.stream(spliterator(), true);
+  }
+
+  public Stream<BagEntry<T>> entryStream()
+  {
+    return StreamSupport.stream(entrySpliterator(), false);
+  }
+
+  public Stream<T> occurrenceStream()
+  {
+    return StreamSupport.stream(allOccurrencesSpliterator(), false);
+  }
+
+  /*
+    Add a value known not to be in the bag with a count that may be too large for an int. The part that fits
+    is added with addNew and any more with addWithOccurrences, which by then finds the value at once.
+   */
+  static <T extends Comparable> void addNew(Bag<T> bag, T value, long occurrences) throws BagException
+  {
+    addNew(bag, value, saturatedCount(occurrences));
+    if (occurrences > Integer.MAX_VALUE)
+    {
+      bag.addWithOccurrences(value, occurrences - Integer.MAX_VALUE);
+    }
+  }
+
+  /*
+    An action on a value and its count that can throw a BagException, such as adding them to another bag.
+   */
+  @FunctionalInterface
+  interface EntryAction<T>
+  {
+    void accept(T value, int count) throws BagException;
+  }
+
+  /*
+    Carries a BagException out of an ObjIntConsumer, whose accept method cannot throw checked exceptions.
+   */
+  private static class EntryFailure extends RuntimeException
+  {
+    public EntryFailure(BagException cause)
     {
-      if (!result.contains(value)) result.add(value);
+      super(cause);
     }
-    for (T value : b)
+  }
+
+  /*
+    Call forEachEntry on a bag with an action that can throw a BagException. The first exception thrown stops
+    the traversal and is rethrown from here.
+   */
+  static <T extends Comparable> void forEachEntry(Bag<T> bag, EntryAction<? super T> action) throws BagException
+  {
+    try
+    {
+      bag.forEachEntry((value, count) ->
+      {
+        try
+        {
+          action.accept(value, count);
+        }
+        catch (BagException e)
+        {
+          throw new EntryFailure(e);
+        }
+      });
+    }
+    catch (EntryFailure e)
+    {
+      throw (BagException) e.getCause();
+    }
+  }
+
+  /*
+    Create the bag to hold a merge of this bag and b, presized for the largest possible result.
+   */
+  private Bag<T> createMergeResult(Bag<T> b) throws BagException
+  {
+    BagFactory<T> factory = BagFactory.getInstance();
+    return factory.getPresizedBag((int) Math.min((long) size() + b.size(), Integer.MAX_VALUE - 8));
+  }
+
+  /*
+    Merge two sorted bags with a single pass over each, in the manner of the merge step of merge sort. As the
+    values arrive in ascending order each value in the result is produced once, already combined, so it can be
+    added with addNew and no lookups in the result are needed. The cursors give each count along with its
+    value, so no lookups in a or b are needed either.
+    If allOccurrences is true the counts of values in both bags are added together, otherwise every value in
+    the result gets a count of 1.
+   */
+  private void mergeSorted(Bag<T> a, Bag<T> b, Bag<T> result, boolean allOccurrences) throws BagException
+  {
+    OccurrenceCursor<T> left = a.occurrenceCursor();
+    OccurrenceCursor<T> right = b.occurrenceCursor();
+    boolean hasLeft = left.advance();
+    boolean hasRight = right.advance();
+    while (hasLeft || hasRight)
+    {
+      int order;
+      if (!hasLeft) order = 1;
+      else if (!hasRight) order = -1;
+      else order = left.value().compareTo(right.value());
+
+      if (order < 0)
+      {
+        addNew(result, left.value(), allOccurrences ? exactCount(a, left.value(), left.count()) : 1);
+        hasLeft = left.advance();
+      }
+      else if (order > 0)
+      {
+        addNew(result, right.value(), allOccurrences ? exactCount(b, right.value(), right.count()) : 1);
+        hasRight = right.advance();
+      }
+      else
+      {
+        addNew(result, left.value(), allOccurrences
+          ? addToCount(exactCount(a, left.value(), left.count()), exactCount(b, right.value(), right.count()))
+          : 1L);
+        hasLeft = left.advance();
+        hasRight = right.advance();
+      }
+    }
+  }
+
+  /*
+    Merge two bags of any kind, giving each value in the result a count of 1. The values already added are
+    recorded in a HashBag, so each value costs a single hashed probe rather than a search of the result, and
+    the result only ever receives values that are new to it. If the result is itself a HashBag it can do the
+    probing directly. This relies on the values having a hashCode consistent with compareTo, as HashBag does.
+   */
+  private void mergeUnique(Bag<T> a, Bag<T> b, Bag<T> result) throws BagException
+  {
+    HashBag<T> seen;
+    if (result instanceof HashBag)
+    {
+      seen = (HashBag<T>) result;
+    }
+    else
+    {
+      seen = new HashBag<>((int) Math.min((long) a.size() + b.size(), Integer.MAX_VALUE - 8), UNBOUNDED);
+    }
+    for (Bag<T> bag : Arrays.asList(a, b))
+    {
+      for (T value : bag)
+      {
+        if (seen.addIfAbsent(value) && seen != result)
+        {
+          addNew(result, value, 1);
+        }
+      }
+    }
+  }
+
+  public Bag<T> createMergedAllOccurrences(Bag<T> b) throws BagException {
+    Bag<T> result = createMergeResult(b);
+    if (this instanceof SortedBag && b instanceof SortedBag)
+    {
+      mergeSorted(this, b, result, true);
+      return result;
+    }
+    forEachEntry(this, (value, count) -> result.addWithOccurrences(value, exactCount(this, value, count)));
+    forEachEntry(b, (value, count) -> result.addWithOccurrences(value, exactCount(b, value, count)));
+    return result;
+  }
+
+  public Bag<T> createMergedAllUnique(Bag<T> b) throws BagException {
+    Bag<T> result = createMergeResult(b);
+    if (this instanceof SortedBag && b instanceof SortedBag)
     {
-      if (!result.contains(value)) result.add(value);
+      mergeSorted(this, b, result, false);
+      return result;
     }
+    mergeUnique(this, b, result);
     return result;
   }
 
@@ -0,0 +1,215 @@
+package uk.ac.ucl.bag;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.ObjIntConsumer;
+
+/*
+   This class implements Bags that choose their own internal representation according to how many unique
+   values they hold, so that code creating bags does not have to guess in advance how large they will get.
+
+   A new bag stores its contents in an ArrayBag. For a handful of values a linear scan of a short array is
+   faster than hashing, and the array takes less memory. Once the bag holds more than UPGRADE_SIZE unique
+   values the contents are moved into a HashBag, and every later operation takes constant time however large
+   the bag grows. A bag created with an initial capacity above UPGRADE_SIZE starts as a HashBag straight away.
+
+   A bag can optionally move back to an ArrayBag if removals take it down to DOWNGRADE_SIZE unique values.
+   The gap between the two sizes stops a bag that hovers around one size from being copied back and forth.
+
+   The move is done inside the operation that crosses the size, so callers never see it, except that
+   iterators created before the move continue over the old representation and do not see later changes.
+ */
+public class AdaptiveBag<T extends Comparable> extends AbstractBag<T>
+{
+  // Move to a HashBag when the number of unique values goes above this.
+  static final int UPGRADE_SIZE = 16;
+
+  // Move back to an ArrayBag, if enabled, when the number of unique values falls to this.
+  static final int DOWNGRADE_SIZE = 4;
+
+  private final int maxSize;
+  private final boolean downgrade;
+  private AbstractBag<T> contents;
+
+  /*
+    Create an unbounded bag, which grows as values are added.
+   */
+  public AdaptiveBag() throws BagException
+  {
+    this(DEFAULT_CAPACITY, UNBOUNDED);
+  }
+
+  /*
+    Create a bounded bag, which throws a BagException if a value is added when it already
+    holds maxSize unique values.
+   */
+  public AdaptiveBag(int maxSize) throws BagException
+  {
+    this(Math.min(DEFAULT_CAPACITY, maxSize), maxSize);
+  }
+
+  /*
+    Create a bag with room for initialCapacity unique values before it needs to grow. Pass UNBOUNDED
+    as maxSize for a bag with no size limit. The bag does not move back to an ArrayBag as it shrinks.
+   */
+  public AdaptiveBag(int initialCapacity, int maxSize) throws BagException
+  {
+    this(initialCapacity, maxSize, false);
+  }
+
+  /*
+    Create a bag, choosing whether it moves back to an ArrayBag when it shrinks to DOWNGRADE_SIZE unique values.
+   */
+  public AdaptiveBag(int initialCapacity, int maxSize, boolean downgrade) throws BagException
+  {
+    checkSizes(initialCapacity, maxSize);
+    this.maxSize = maxSize;
+    this.downgrade = downgrade;
+    if (initialCapacity > UPGRADE_SIZE)
+    {
+      contents = new HashBag<>(initialCapacity, maxSize);
+    }
+    else
+    {
+      // A small initial capacity is kept, so tiny bags only allocate what they were asked for.
+      contents = new ArrayBag<>(Math.min(initialCapacity, UPGRADE_SIZE + 1), maxSize);
+    }
+  }
+
+  /*
+    Copy the contents into a new representation. The values are already distinct, so addNew is used.
+   */
+  private void moveTo(AbstractBag<T> target) throws BagException
+  {
+    OccurrenceCursor<T> cursor = contents.occurrenceCursor();
+    while (cursor.advance())
+    {
+      addNew(target, cursor.value(), exactCount(contents, cursor.value(), cursor.count()));
+    }
+    contents = target;
+  }
+
+  private void upgradeIfNeeded() throws BagException
+  {
+    if (contents instanceof ArrayBag && contents.size() > UPGRADE_SIZE)
+    {
+      moveTo(new HashBag<>(UPGRADE_SIZE * 2, maxSize));
+    }
+  }
+
+  private void downgradeIfNeeded()
+  {
+    if (downgrade && contents instanceof HashBag && contents.size() <= DOWNGRADE_SIZE)
+    {
+      try
+      {
+        moveTo(new ArrayBag<>(UPGRADE_SIZE + 1, maxSize));
+      }
+      catch (BagException e)
+      {
+        // Cannot happen: the new bag has room for every value. Carry on with the HashBag.
+      }
+    }
+  }
+
+  public void add(T value) throws BagException
+  {
+    addWithOccurrences(value, 1);
+  }
+
+  public void addWithOccurrences(T value, int occurrences) throws BagException
+  {
+    contents.addWithOccurrences(value, occurrences);
+    upgradeIfNeeded();
+  }
+
+  public void addWithOccurrences(T value, long occurrences) throws BagException
+  {
+    contents.addWithOccurrences(value, occurrences);
+    upgradeIfNeeded();
+  }
+
+  protected void addNew(T value, int occurrences) throws BagException
+  {
+    contents.addNew(value, occurrences);
+    upgradeIfNeeded();
+  }
+
+  public boolean contains(T value)
+  {
+    return contents.contains(value);
+  }
+
+  public int countOf(T value)
+  {
+    return contents.countOf(value);
+  }
+
+  public long countOfLong(T value)
+  {
+    return contents.countOfLong(value);
+  }
+
+  public int removeOccurrences(T value, int n)
+  {
+    int removed = contents.removeOccurrences(value, n);
+    downgradeIfNeeded();
+    return removed;
+  }
+
+  public boolean isEmpty()
+  {
+    return contents.isEmpty();
+  }
+
+  public int size()
+  {
+    return contents.size();
+  }
+
+  public long totalOccurrences()
+  {
+    return contents.totalOccurrences();
+  }
+
+  public List<BagEntry<T>> topK(int k)
+  {
+    return contents.topK(k);
+  }
+
+  public void forEachEntry(ObjIntConsumer<? super T> action)
+  {
+    contents.forEachEntry(action);
+  }
+
+  public Iterator<T> iterator()
+  {
+    return contents.iterator();
+  }
+
+  public Iterator<T> allOccurrencesIterator()
+  {
+    return contents.allOccurrencesIterator();
+  }
+
+  public OccurrenceCursor<T> occurrenceCursor()
+  {
+    return contents.occurrenceCursor();
+  }
+
+  public Spliterator<T> allOccurrencesSpliterator()
+  {
+    return contents.allOccurrencesSpliterator();
+  }
+
+  public Spliterator<T> spliterator()
+  {
+    return contents.spliterator();
+  }
+
+  public Spliterator<BagEntry<T>> entrySpliterator()
+  {
+    return contents.entrySpliterator();
+  }
+}
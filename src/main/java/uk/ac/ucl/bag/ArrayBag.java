@@ -1,138 +1,267 @@
 package uk.ac.ucl.bag;
 
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.function.ObjIntConsumer;
 
 /*
-   This class implements Bags using an ArrayList as the internal data structure.
+   This class implements Bags using a pair of parallel arrays as the internal data structure.
+   Values are iterated in the order they were added until a value is removed entirely, when the most
+   recently added value takes its place.
  */
 public class ArrayBag<T extends Comparable> extends AbstractBag<T>
 {
   /*
-     Objects of class Element store a value and its occurrence count. This class is part of the
-     private infrastructure used by ArrayBag and cannot be used outside the class scope. As it
-     is used to implement the ArrayBag data structure the instance variables are public, strict
-     encapsulation not being needed (the class is being used like a C struct).
-     Note that the class is static (nested top level class) and does not have access to the scope
-     of class ArrayBag even though it is nested inside the class. This means that the type variable
-     T is not in scope, so class Element has to be declared using a different type variable E.
+     The unique values are stored in the values array and the occurrence count of each value is stored at
+     the same position in the counts array, with the first size positions of each array in use. This is a
+     "struct of arrays" layout: rather than a list of objects that each hold a value and a count, there is
+     one array for each field. A lookup walks a single contiguous array of references, and a bag needs no
+     extra object per value, which matters when a program creates a large number of small bags.
+     The values array is declared as Object[] because Java does not allow an array of a type variable
+     such as T to be created, so values are cast back to T as they are read.
    */
-  private static class Element<E extends Comparable>
-  {
-    public int count;
-    public E value;
-    public Element(int count, E value)
-    {
-      this.count = count;
-      this.value = value;
-    }
-  }
-
   private int maxSize;
-  private ArrayList<Element<T>> contents;
+  private int size;
+  private Object[] values;
+  private int[] counts;
+  // The sum of the counts, kept up to date by every method that changes a count.
+  private long total;
+  // The part of any count too large for an int, or null until a count first overflows.
+  private OverflowCounts<T> overflow;
 
+  /*
+    Create an unbounded bag, which grows as values are added.
+   */
   public ArrayBag() throws BagException
   {
-    this(MAX_SIZE);
+    this(DEFAULT_CAPACITY, UNBOUNDED);
   }
 
+  /*
+    Create a bounded bag, which throws a BagException if a value is added when it already
+    holds maxSize unique values.
+   */
   public ArrayBag(int maxSize) throws BagException
   {
-    if (maxSize > MAX_SIZE)
-    {
-      throw new BagException("Attempting to create a Bag with size greater than maximum");
-    }
-    if (maxSize < 1)
-    {
-      throw new BagException("Attempting to create a Bag with size less than 1");
-    }
+    this(Math.min(DEFAULT_CAPACITY, maxSize), maxSize);
+  }
+
+  /*
+    Create a bag with room for initialCapacity unique values before it needs to grow. Pass UNBOUNDED
+    as maxSize for a bag with no size limit.
+   */
+  public ArrayBag(int initialCapacity, int maxSize) throws BagException
+  {
+    checkSizes(initialCapacity, maxSize);
     this.maxSize = maxSize;
-    this.contents = new ArrayList<>();
+    this.size = 0;
+    this.values = new Object[Math.min(initialCapacity, maxSize)];
+    this.counts = new int[values.length];
   }
 
-  public void add(T value) throws BagException
+  /*
+    Return the position of value in the values array, or -1 if the value is not in the bag.
+   */
+  private int find(T value)
   {
-    for (Element element : contents)
+    for (int i = 0 ; i < size ; i++)
     {
-      if (element.value.compareTo(value) == 0) // Must use compareTo to compare values.
+      if (((T) values[i]).compareTo(value) == 0) // Must use compareTo to compare values.
       {
-        element.count++;
-        return;
+        return i;
       }
     }
-    if (contents.size() < maxSize)
-    {
-      contents.add(new Element(1,value));
-    }
-    else
+    return -1;
+  }
+
+  /*
+    Make room for more values by growing the arrays by half, as an ArrayList does, but never beyond maxSize.
+   */
+  private void grow() throws BagException
+  {
+    long capacity = Math.min((long) values.length + (values.length >> 1) + 1, Math.min(maxSize, Integer.MAX_VALUE - 8));
+    if (capacity <= values.length)
     {
       throw new BagException("Bag is full");
     }
+    values = Arrays.copyOf(values, (int) capacity);
+    counts = Arrays.copyOf(counts, (int) capacity);
   }
 
-  public void addWithOccurrences(T value, int occurrences) throws BagException
+  /*
+    Return the count of the value at position, including any part held in overflow.
+   */
+  private long countAt(int position)
   {
-    for (int i = 0 ; i < occurrences ; i++)
-    {
-      add(value);
-    }
+    return overflow != null ? overflow.count((T) values[position], counts[position]) : counts[position];
   }
 
-  public boolean contains(T value)
+  /*
+    Set the count of the value at position, moving any part too large for an int into overflow.
+   */
+  private void setCountAt(int position, long count)
   {
-    for (Element element : contents)
+    if (overflow == null)
     {
-      if (element.value.compareTo(value) == 0)
+      if (count <= Integer.MAX_VALUE)
       {
-        return true;
+        counts[position] = (int) count;
+        return;
       }
+      overflow = new OverflowCounts<>(new TreeMap<>());
     }
-    return false;
+    counts[position] = overflow.setCount((T) values[position], count);
   }
 
-  public int countOf(T value)
+  public void add(T value) throws BagException
   {
-    for (Element element : contents)
+    addWithOccurrences(value, 1);
+  }
+
+  public void addWithOccurrences(T value, int occurrences) throws BagException
+  {
+    checkOccurrences(occurrences);
+    if (occurrences == 0)
+    {
+      return;
+    }
+    int position = find(value);
+    if (position >= 0)
     {
-      if (element.value.compareTo(value) == 0)
+      if (counts[position] <= Integer.MAX_VALUE - occurrences)
       {
-        return element.count;
+        counts[position] += occurrences;
       }
+      else
+      {
+        setCountAt(position, addToCount(countAt(position), (long) occurrences));
+      }
+      total += occurrences;
+      return;
     }
-    return 0; 
+    addNew(value, occurrences);
   }
 
-  public void remove(T value)
+  public void addWithOccurrences(T value, long occurrences) throws BagException
   {
-    for (int i = 0 ; i < contents.size() ; i++)
+    checkOccurrences(occurrences);
+    if (occurrences == 0)
     {
-      Element element = contents.get(i);
-      if (element.value.compareTo(value) == 0)
+      return;
+    }
+    int position = find(value);
+    if (position < 0)
+    {
+      // Append the part of the count that fits in an int, then add the rest to the new last position.
+      addNew(value, saturatedCount(occurrences));
+      position = size - 1;
+      occurrences -= counts[position];
+      if (occurrences == 0)
       {
-        element.count--;
-        if (element.count == 0)
-        {
-          contents.remove(element);
-          return;
-        }
+        return;
       }
     }
+    setCountAt(position, addToCount(countAt(position), occurrences));
+    total += occurrences;
+  }
+
+  /*
+    Append a value known not to be in the bag, without scanning for it.
+   */
+  protected void addNew(T value, int occurrences) throws BagException
+  {
+    if (size >= maxSize)
+    {
+      throw new BagException("Bag is full");
+    }
+    if (size == values.length)
+    {
+      grow();
+    }
+    values[size] = value;
+    counts[size] = occurrences;
+    size++;
+    total += occurrences;
+  }
+
+  public boolean contains(T value)
+  {
+    return find(value) >= 0;
+  }
+
+  public int countOf(T value)
+  {
+    int position = find(value);
+    return position >= 0 ? counts[position] : 0;
+  }
+
+  public long countOfLong(T value)
+  {
+    int position = find(value);
+    return position >= 0 ? countAt(position) : 0;
+  }
+
+  public int removeOccurrences(T value, int n)
+  {
+    checkRemoveOccurrences(n);
+    int position = find(value);
+    if (position < 0 || n == 0)
+    {
+      return 0;
+    }
+    if (overflow != null && counts[position] == Integer.MAX_VALUE && countAt(position) > n)
+    {
+      setCountAt(position, countAt(position) - n);
+      total -= n;
+      return n;
+    }
+    if (counts[position] > n)
+    {
+      counts[position] -= n;
+      total -= n;
+      return n;
+    }
+    // Remove the value by moving the last value into its place, so nothing needs to be shifted.
+    int removed = counts[position];
+    total -= removed;
+    size--;
+    values[position] = values[size];
+    counts[position] = counts[size];
+    values[size] = null;
+    return removed;
   }
 
   public boolean isEmpty()
   {
-    return contents.size() == 0;
+    return size == 0;
   }
 
   public int size()
   {
-    return contents.size();
+    return size;
+  }
+
+  public long totalOccurrences()
+  {
+    return total;
+  }
+
+  public void forEachEntry(ObjIntConsumer<? super T> action)
+  {
+    for (int i = 0 ; i < size ; i++)
+    {
+      action.accept((T) values[i], counts[i]);
+    }
   }
 
   /* This class implements the iterator interface to allow the unique values in ArrayBag objects to be iterated through.
-   * The iterator returns each unique value without any copies (i.e., one value for each element in the
-   * ArrayList data structure). Notice that this class is not declared static and is a nested inner class, which
-   * does have access to the scope of the ArrayBag class, allowing it to access the ArrayList data structure
+   * The iterator returns each unique value without any copies (i.e., one value for each position in use in the
+   * values array). Notice that this class is not declared static and is a nested inner class, which
+   * does have access to the scope of the ArrayBag class, allowing it to access the arrays
    * directly. The use of the static keyword when declaring nested classes makes an important difference.
    * The class is still private, though, and cannot be accessed outside the scope of the ArrayBag class.
    * However, a reference to an object of the class can be returned as a reference of type Iterator.
@@ -143,13 +272,13 @@ public class ArrayBag<T extends Comparable> extends AbstractBag<T>
 
     public boolean hasNext()
     {
-      if (index < contents.size()) return true;
+      if (index < size) return true;
       return false;
     }
 
     public T next()
     {
-      return contents.get(index++).value;
+      return (T) values[index++];
     }
   }
 
@@ -164,33 +293,35 @@ public class ArrayBag<T extends Comparable> extends AbstractBag<T>
 
   /*
     This class implements an additional iterator that returns all values in a bag including a value for each copy.
-    It is also a nested inner class.
+    It is also a nested inner class. The value being repeated and the number of copies of it still to return are
+    held in fields, so the arrays are only read when the iterator moves on to the next value rather than on
+    every call.
    */
   private class ArrayBagIterator implements Iterator<T>
   {
     private int index = 0;
-    private int count = 0;
-    
+    private T value;
+    private long remaining = 0;
+
     public boolean hasNext()
     {
-      if (index < contents.size()) {
-        if (count < contents.get(index).count) return true;
-        if ((count == contents.get(index).count) && ((index + 1) < contents.size())) return true;
-      }
-      return false;
+      return remaining > 0 || index < size;
     }
 
     public T next()
     {
-      if (count < contents.get(index).count)
+      if (remaining == 0)
       {
-        T value = contents.get(index).value;
-        count++;
-        return value;
+        if (index >= size)
+        {
+          throw new NoSuchElementException();
+        }
+        value = (T) values[index];
+        remaining = countAt(index);
+        index++;
       }
-      count = 1;
-      index++;
-      return contents.get(index).value;
+      remaining--;
+      return value;
     }
   }
 
@@ -198,4 +329,28 @@ public class ArrayBag<T extends Comparable> extends AbstractBag<T>
   {
     return new ArrayBagIterator();
   }
+
+  public OccurrenceCursor<T> occurrenceCursor()
+  {
+    return new ArrayOccurrenceCursor<>(values, counts, size);
+  }
+
+  public Spliterator<T> allOccurrencesSpliterator()
+  {
+    return new OccurrenceSpliterator<>(values, counts, overflow, size, total);
+  }
+
+  /*
+    Splits the packed values array directly, so every piece knows its exact size.
+   */
+  public Spliterator<T> spliterator()
+  {
+    return Spliterators.spliterator(values, 0, size,
+      Spliterator.ORDERED | Spliterator.DISTINCT);
+  }
+
+  public Spliterator<BagEntry<T>> entrySpliterator()
+  {
+    return new EntrySpliterator<>(values, counts, 0, size);
+  }
 }
@@ -0,0 +1,41 @@
+package uk.ac.ucl.bag;
+
+/*
+   An OccurrenceCursor over the packed values and counts arrays used by ArrayBag and HashBag, where the value
+   at each position in the values array has its count at the same position in the counts array.
+ */
+class ArrayOccurrenceCursor<T> implements OccurrenceCursor<T>
+{
+  private final Object[] values;
+  private final int[] counts;
+  private final int size;
+  private int position = -1;
+
+  ArrayOccurrenceCursor(Object[] values, int[] counts, int size)
+  {
+    this.values = values;
+    this.counts = counts;
+    this.size = size;
+  }
+
+  public boolean advance()
+  {
+    if (position + 1 < size)
+    {
+      position++;
+      return true;
+    }
+    position = size;
+    return false;
+  }
+
+  public T value()
+  {
+    return (T) values[position];
+  }
+
+  public int count()
+  {
+    return counts[position];
+  }
+}
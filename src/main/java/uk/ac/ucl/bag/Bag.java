@@ -1,6 +1,11 @@
 package uk.ac.ucl.bag;
 
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
 
 /**
  * A Bag is a data structure that can hold a collection of values (really object references of course), along with
@@ -23,30 +28,64 @@ import java.util.Iterator;
 public interface Bag<T extends Comparable> extends Iterable<T>
 {
   /**
-   * The fixed maximum size of a bag.
-   * This determines the maximum number of unique values that can
-   * be stored in a bag, not the number of occurrences of each value.
+   * The maximum size given to a bag that has no limit on the number of unique values it can store, other than
+   * the memory available. This is the default. A bag can instead be created in bounded mode by giving it a smaller
+   * maximum size, in which case adding a new value to a full bag throws a BagException.
    */
+  static final int UNBOUNDED = Integer.MAX_VALUE;
+
+  /**
+   * The number of unique values a bag has room for when it is created without an initial capacity. The bag
+   * grows as needed, so this only affects how soon the first growth step happens.
+   */
+  static final int DEFAULT_CAPACITY = 16;
+
+  /**
+   * The former fixed maximum size of a bag. Bags are now unbounded unless created with a maximum size, so
+   * this value is no longer enforced.
+   * @deprecated Use UNBOUNDED, or pass an explicit maximum size to BagFactory.getBag(int).
+   */
+  @Deprecated
   static final int MAX_SIZE = 1000;
 
    /**
     * Add a value to a bag.
     * @param value The value to add.
-    * @throws BagException If the bag is full.
+    * @throws BagException If the bag was created with a maximum size and is full.
     */
   void add(T value) throws BagException;
 
    /**
     * Add the given number of occurrences of value to a bag.
     * @param value The value to add.
-    * @param occurrences The number of occurrences of the value.
-    * @throws BagException If the bag is full.
+    * @param occurrences The number of occurrences of the value. Adding zero occurrences leaves the bag unchanged.
+    * @throws BagException If the bag is bounded and full, occurrences is negative or the count of the value would
+    * become too large to store.
     * Note that the bag holds a single copy of a given value, along with
     * the number of occurrences of that value. It does not store multiple
-    * copies of the same value.
+    * copies of the same value, and the value is looked up once however many occurrences are added.
     */
   void addWithOccurrences(T value, int occurrences) throws BagException;
 
+  /**
+   * Add the given number of occurrences of value to a bag, where the number or the resulting count may be too
+   * large for an int. Bags store counts compactly as ints and only use more space for the values whose counts
+   * go past Integer.MAX_VALUE.
+   * @param value The value to add.
+   * @param occurrences The number of occurrences of the value.
+   * @throws BagException If the bag is bounded and full, occurrences is negative, or the count of the value
+   * would become too large to store. The primitive bags can only store counts that fit in an int.
+   */
+  void addWithOccurrences(T value, long occurrences) throws BagException;
+
+  /**
+   * Add a collection of pre-counted values to a bag, for example counts loaded from a file or produced by
+   * another program. Each distinct value is looked up once.
+   * @param counts A map from each value to the number of occurrences to add.
+   * @throws BagException If the bag is bounded and becomes full, a count is negative or a count would become too large to store.
+   */
+  void addAllWithOccurrences(Map<? extends T, Integer> counts) throws BagException;
+
   /**
    * Check if the bag contains a value.
    * @param value The value to look for.
@@ -55,12 +94,20 @@ public interface Bag<T extends Comparable> extends Iterable<T>
   boolean contains(T value);
 
   /**
-   * Return the number of occurrences (count) of a value in the bag.
+   * Return the number of occurrences (count) of a value in the bag. A count too large for an int is
+   * returned as Integer.MAX_VALUE, as are the counts given by forEachEntry, the cursors and the entry streams.
    * @param value The value to look for.
-   * @return The number of occurrences.
+   * @return The number of occurrences, or Integer.MAX_VALUE if there are more than that.
    */
   int countOf(T value);
 
+  /**
+   * Return the number of occurrences (count) of a value in the bag, however large it is.
+   * @param value The value to look for.
+   * @return The number of occurrences.
+   */
+  long countOfLong(T value);
+
   /**
    * Remove an occurrence of value from the bag. If the last occurrence is removed,
    * remove the value as well. Do nothing if the value is not in the bag.
@@ -68,6 +115,24 @@ public interface Bag<T extends Comparable> extends Iterable<T>
    */
   void remove(T value);
 
+  /**
+   * Remove up to n occurrences of value from the bag, with a single lookup. If the last occurrence is removed,
+   * remove the value as well.
+   * @param value The value to remove.
+   * @param n The number of occurrences to remove.
+   * @return The number of occurrences actually removed, which is less than n if the bag held fewer.
+   * @throws IllegalArgumentException If n is negative.
+   */
+  int removeOccurrences(T value, int n);
+
+  /**
+   * Remove a value from the bag along with all its occurrences.
+   * @param value The value to remove.
+   * @return The number of occurrences removed, or 0 if the value was not in the bag. More than
+   * Integer.MAX_VALUE occurrences are all removed, and reported as Integer.MAX_VALUE.
+   */
+  int removeAll(T value);
+
   /**
    * Determine the number of distinct values stored in the bag. The number of
    * occurrences of each value is not taken into account.
@@ -75,12 +140,40 @@ public interface Bag<T extends Comparable> extends Iterable<T>
    */
   int size();
 
+  /**
+   * Return the total number of occurrences of all the values in the bag, which is the number of values
+   * allOccurrencesIterator would return. The total is kept up to date as values are added and removed, so
+   * this takes constant time.
+   * @return The total number of occurrences.
+   */
+  long totalOccurrences();
+
   /**
    * Check if the set is empty.
    * @return True if the set is empty, false otherwise.
    */
   boolean isEmpty();
 
+  /**
+   * Return the k values with the highest counts, each with its count, highest first. Values with equal counts
+   * are returned in no particular order. Most bags find them with a single pass keeping the best k so far in a
+   * heap, which takes O(n log k) time for a bag of n unique values; a RankedBag keeps its values in order of
+   * count and takes O(k) time.
+   * @param k The number of values wanted.
+   * @return A new list of at most k entries, fewer if the bag holds fewer than k unique values.
+   * @throws IllegalArgumentException If k is negative.
+   */
+  List<BagEntry<T>> topK(int k);
+
+  /**
+   * Pass each unique value in the bag to an action together with its count, in the same order as iterator.
+   * This reads the value and count side by side from the bag's own storage, so it needs no lookups and
+   * creates no iterator, and is the fastest way to visit the whole contents of a bag.
+   * The action must not change the bag.
+   * @param action The action, called once for each unique value with the value and its count.
+   */
+  void forEachEntry(ObjIntConsumer<? super T> action);
+
   /**
    * Create a new Bag containing the unique contents of this and the argument Bag, giving a bag containing all the
    * unique values each with a count of 1.
@@ -107,10 +200,61 @@ public interface Bag<T extends Comparable> extends Iterable<T>
    */
   public Iterator<T> allOccurrencesIterator();
 
+  /**
+   * Create a cursor that visits each unique value once together with its count, in the same order as
+   * iterator. This gives the same information as the all occurrences iterator, one run of copies at a time.
+   * @return The new cursor, positioned before the first value.
+   */
+  OccurrenceCursor<T> occurrenceCursor();
+
+  /**
+   * Create a Spliterator returning every occurrence of every value, in the same order as
+   * allOccurrencesIterator. The Spliterator can be split to share the work between threads, including
+   * splitting the copies of a single value with a large count.
+   * @return The new Spliterator.
+   */
+  Spliterator<T> allOccurrencesSpliterator();
+
+  /**
+   * Create a Spliterator returning each unique value together with its count, in the same order as iterator.
+   * @return The new Spliterator.
+   */
+  Spliterator<BagEntry<T>> entrySpliterator();
+
+  /**
+   * Return a sequential stream of the unique values in the bag.
+   * @return The new stream.
+   */
+  Stream<T> stream();
+
+  /**
+   * Return a parallel stream of the unique values in the bag. The stream splits the bag's own storage, so
+   * the work is divided evenly between threads.
+   * @return The new stream.
+   */
+  Stream<T> parallelStream();
+
+  /**
+   * Return a sequential stream of the unique values in the bag, each together with its count. Call parallel
+   * on the stream to process the entries in parallel.
+   * @return The new stream.
+   */
+  Stream<BagEntry<T>> entryStream();
+
+  /**
+   * Return a sequential stream of every occurrence of every value in the bag, as allOccurrencesIterator
+   * returns them. Call parallel on the stream to process the occurrences in parallel.
+   * @return The new stream.
+   */
+  Stream<T> occurrenceStream();
+
   /*
   This method declaration is inherited from interface Iterator, so not redeclared here.
   Included here as a reminder that this method is part of the Bag interface.
   Return a standard iterator, giving each unique value in turn.
   public Iterator<T> iterator();
+
+  The spliterator method is also inherited from Iterable, and is overridden by the bag classes to return
+  a Spliterator over their own storage, so that stream and parallelStream split evenly.
    */
 }
@@ -0,0 +1,323 @@
+package uk.ac.ucl.bag;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ConcurrentModificationException;
+
+/**
+ * Writes the contents of a bag in a compact binary form, and reads them back into a new bag, so that a bag can
+ * be saved to a file or sent elsewhere and later restored.
+ *
+ * The form is a header of four magic bytes and a version byte, then the number of unique values, then one
+ * record for each unique value holding the value, written by a ValueCodec, and its count. Numbers are written
+ * as variable length integers, seven bits to a byte with the top bit set on every byte but the last, so a
+ * count below 128 takes a single byte. The bag is written straight from its occurrence cursor, one record at
+ * a time, so writing a large bag needs no extra memory and the output can be streamed to a file of any size.
+ *
+ * Buffers are always written and read most significant byte first, whatever the byte order of the buffer
+ * given, so a bag written to a buffer can be read from a stream and the other way round.
+ *
+ * A bag must not be changed while it is being written.
+ *
+ * @param <T> The type of the values.
+ */
+public class BagCodec<T extends Comparable>
+{
+  /**
+   * The first four bytes of every bag written by a BagCodec, "BAGS" in ASCII.
+   */
+  public static final int MAGIC = 0x42414753;
+
+  /**
+   * The version of the form written.
+   */
+  public static final byte VERSION = 1;
+
+  // The most values a bag being read is presized for.
+  private static final int PRESIZE_LIMIT = 1 << 16;
+
+  private final ValueCodec<T> values;
+
+  /**
+   * Create a codec that writes and reads the values of a bag with the given value codec.
+   * @param values The value codec, for example one from ValueCodecs.
+   */
+  public BagCodec(ValueCodec<T> values)
+  {
+    this.values = values;
+  }
+
+  /**
+   * Write a bag to a stream. Wrap a file stream in a BufferedOutputStream and a DataOutputStream for speed.
+   * @param bag The bag.
+   * @param out The stream.
+   * @throws IOException If the stream cannot be written.
+   * @throws ConcurrentModificationException If the bag was changed while it was being written.
+   */
+  public void write(Bag<T> bag, DataOutput out) throws IOException
+  {
+    int size = bag.size();
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    writeVarLong(size, out);
+    OccurrenceCursor<T> cursor = bag.occurrenceCursor();
+    int written = 0;
+    while (written < size && cursor.advance())
+    {
+      values.write(cursor.value(), out);
+      writeVarLong(AbstractBag.exactCount(bag, cursor.value(), cursor.count()), out);
+      written++;
+    }
+    checkWritten(size, written, cursor);
+  }
+
+  /**
+   * Write a bag into a buffer, starting at its position and leaving the position after the last record. The
+   * byte order of the buffer is not used or changed.
+   * @param bag The bag.
+   * @param buffer The buffer.
+   * @throws java.nio.BufferOverflowException If the buffer does not have room for the whole bag.
+   * @throws ConcurrentModificationException If the bag was changed while it was being written.
+   */
+  public void write(Bag<T> bag, ByteBuffer buffer)
+  {
+    int size = bag.size();
+    ByteBuffer out = bigEndian(buffer);
+    out.putInt(MAGIC);
+    out.put(VERSION);
+    writeVarLong(size, out);
+    OccurrenceCursor<T> cursor = bag.occurrenceCursor();
+    int written = 0;
+    while (written < size && cursor.advance())
+    {
+      values.write(cursor.value(), out);
+      writeVarLong(AbstractBag.exactCount(bag, cursor.value(), cursor.count()), out);
+      written++;
+    }
+    checkWritten(size, written, cursor);
+    buffer.position(out.position());
+  }
+
+  /*
+    A view of a buffer sharing its contents and position, but always big-endian. The caller's buffer is moved
+    on only once the view has been used successfully.
+   */
+  private static ByteBuffer bigEndian(ByteBuffer buffer)
+  {
+    return buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+  }
+
+  /*
+    The number of records was written before the records, so it has to match what the cursor gave.
+   */
+  private static void checkWritten(int size, int written, OccurrenceCursor<?> cursor)
+  {
+    if (written < size || cursor.advance())
+    {
+      throw new ConcurrentModificationException("Bag changed while being written");
+    }
+  }
+
+  /**
+   * Read a bag from a stream into a new bag created by the BagFactory.
+   * @param in The stream.
+   * @return The new bag.
+   * @throws IOException If the stream cannot be read or does not hold a bag written by a BagCodec.
+   * @throws BagException If the factory cannot create a bag.
+   */
+  public Bag<T> read(DataInput in) throws IOException, BagException
+  {
+    int size = readHeader(in);
+    Bag<T> bag = newBag(size);
+    int i = 0;
+    try
+    {
+      for ( ; i < size ; i++)
+      {
+        T value = values.read(in);
+        addRecord(bag, i, value, checkCount(readVarLong(in)));
+      }
+    }
+    catch (EOFException e)
+    {
+      throw new StreamCorruptedException("Bag data ends after " + i + " of " + size + " values");
+    }
+    return bag;
+  }
+
+  /**
+   * Read a bag from a stream, adding its contents to the given bag.
+   * @param in The stream.
+   * @param bag The bag to add to.
+   * @throws IOException If the stream cannot be read or does not hold a bag written by a BagCodec.
+   * @throws BagException If the bag becomes full or a count becomes too large to store.
+   */
+  public void readInto(DataInput in, Bag<T> bag) throws IOException, BagException
+  {
+    int size = readHeader(in);
+    for (int i = 0 ; i < size ; i++)
+    {
+      T value = values.read(in);
+      bag.addWithOccurrences(value, checkCount(readVarLong(in)));
+    }
+  }
+
+  /**
+   * Read a bag from a buffer, starting at its position, into a new bag created by the BagFactory. The position
+   * is left after the last record. The byte order of the buffer is not used or changed.
+   * @param buffer The buffer.
+   * @return The new bag.
+   * @throws IOException If the buffer does not hold a bag written by a BagCodec.
+   * @throws BagException If the factory cannot create a bag.
+   */
+  public Bag<T> read(ByteBuffer buffer) throws IOException, BagException
+  {
+    try
+    {
+      ByteBuffer in = bigEndian(buffer);
+      int size = readHeader(in);
+      Bag<T> bag = newBag(size);
+      for (int i = 0 ; i < size ; i++)
+      {
+        T value = values.read(in);
+        addRecord(bag, i, value, checkCount(readVarLong(in)));
+      }
+      buffer.position(in.position());
+      return bag;
+    }
+    catch (BufferUnderflowException | IllegalArgumentException e)
+    {
+      throw new StreamCorruptedException("Bad bag data: " + e);
+    }
+  }
+
+  /*
+    Create the bag to read into. The number of values comes from the data, which may be damaged, so the bag
+    is presized for at most PRESIZE_LIMIT values and grows as more records are actually read.
+   */
+  private static <T extends Comparable> Bag<T> newBag(int size) throws BagException
+  {
+    return BagFactory.getInstance().getPresizedBag(Math.max(1, Math.min(size, PRESIZE_LIMIT)));
+  }
+
+  /*
+    Add the record numbered i to a bag that held only the records before it. A bag written by a BagCodec
+    holds each value once, so if the bag does not grow by one the value was repeated and the data is damaged.
+   */
+  private static <T extends Comparable> void addRecord(Bag<T> bag, int i, T value, long count)
+    throws IOException, BagException
+  {
+    bag.addWithOccurrences(value, count);
+    if (bag.size() != i + 1)
+    {
+      throw new StreamCorruptedException("Value repeated: " + value);
+    }
+  }
+
+  private int readHeader(DataInput in) throws IOException
+  {
+    if (in.readInt() != MAGIC)
+    {
+      throw new StreamCorruptedException("Not a bag written by BagCodec");
+    }
+    checkVersion(in.readByte());
+    return checkSize(readVarLong(in));
+  }
+
+  private int readHeader(ByteBuffer buffer) throws IOException
+  {
+    if (buffer.getInt() != MAGIC)
+    {
+      throw new StreamCorruptedException("Not a bag written by BagCodec");
+    }
+    checkVersion(buffer.get());
+    return checkSize(readVarLong(buffer));
+  }
+
+  private static void checkVersion(byte version) throws IOException
+  {
+    if (version != VERSION)
+    {
+      throw new StreamCorruptedException("Unsupported bag version: " + version);
+    }
+  }
+
+  private static int checkSize(long size) throws IOException
+  {
+    if (size < 0 || size > Integer.MAX_VALUE)
+    {
+      throw new StreamCorruptedException("Bad number of values: " + size);
+    }
+    return (int) size;
+  }
+
+  private static long checkCount(long count) throws IOException
+  {
+    if (count <= 0)
+    {
+      throw new StreamCorruptedException("Bad count: " + count);
+    }
+    return count;
+  }
+
+  /*
+    Variable length integers. Seven bits are written to each byte, lowest first, with the top bit set if
+    more bytes follow. A non-negative long takes at most ten bytes. These are package-private so that the
+    value codecs can use them for length prefixes.
+   */
+  static void writeVarLong(long n, DataOutput out) throws IOException
+  {
+    while ((n & ~0x7FL) != 0)
+    {
+      out.writeByte((int) (n & 0x7F) | 0x80);
+      n >>>= 7;
+    }
+    out.writeByte((int) n);
+  }
+
+  static void writeVarLong(long n, ByteBuffer buffer)
+  {
+    while ((n & ~0x7FL) != 0)
+    {
+      buffer.put((byte) ((n & 0x7F) | 0x80));
+      n >>>= 7;
+    }
+    buffer.put((byte) n);
+  }
+
+  static long readVarLong(DataInput in) throws IOException
+  {
+    long n = 0;
+    for (int shift = 0 ; shift < 64 ; shift += 7)
+    {
+      byte b = in.readByte();
+      n |= (long) (b & 0x7F) << shift;
+      if (b >= 0)
+      {
+        return n;
+      }
+    }
+    throw new StreamCorruptedException("Variable length integer too long");
+  }
+
+  static long readVarLong(ByteBuffer buffer)
+  {
+    long n = 0;
+    for (int shift = 0 ; shift < 64 ; shift += 7)
+    {
+      byte b = buffer.get();
+      n |= (long) (b & 0x7F) << shift;
+      if (b >= 0)
+      {
+        return n;
+      }
+    }
+    throw new IllegalArgumentException("Variable length integer too long");
+  }
+}
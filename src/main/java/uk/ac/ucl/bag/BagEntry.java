@@ -0,0 +1,64 @@
+package uk.ac.ucl.bag;
+
+import java.util.Objects;
+
+/**
+ * A value from a bag together with its count, as returned by Bag.entryStream. A BagEntry is a snapshot: it
+ * is not changed when the bag it came from is changed.
+ *
+ * @param <T> The type of the value.
+ */
+public final class BagEntry<T>
+{
+  private final T value;
+  private final int count;
+
+  /**
+   * Create an entry.
+   * @param value The value.
+   * @param count The number of occurrences of the value.
+   */
+  public BagEntry(T value, int count)
+  {
+    this.value = value;
+    this.count = count;
+  }
+
+  /**
+   * Return the value.
+   * @return The value.
+   */
+  public T getValue()
+  {
+    return value;
+  }
+
+  /**
+   * Return the number of occurrences of the value.
+   * @return The count.
+   */
+  public int getCount()
+  {
+    return count;
+  }
+
+  public boolean equals(Object other)
+  {
+    if (!(other instanceof BagEntry))
+    {
+      return false;
+    }
+    BagEntry<?> entry = (BagEntry<?>) other;
+    return count == entry.count && Objects.equals(value, entry.value);
+  }
+
+  public int hashCode()
+  {
+    return Objects.hashCode(value) * 31 + count;
+  }
+
+  public String toString()
+  {
+    return value + "=" + count;
+  }
+}
@@ -1,56 +1,135 @@
 package uk.ac.ucl.bag;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
 /**
  * A factory to create Bag objects. The class is implemented as a Singleton, such that only one factory
  * object can be created. The factory can be configured with the name of the bag class it creates instances
  * of.
+ *
+ * The bag classes available are those of the BagProviders found by java.util.ServiceLoader when the factory
+ * is created, which includes the implementations in this library and any others on the class path. The
+ * initial class can be chosen at startup by setting the system property uk.ac.ucl.bag.class, for example
+ * with -Duk.ac.ucl.bag.class=HashBag on the java command line.
  */
 public class BagFactory<T extends Comparable>
 {
-  private static BagFactory factory = null;
+  /**
+   * The name of the system property giving the bag class to use until setBagClass is called.
+   */
+  public static final String BAG_CLASS_PROPERTY = "uk.ac.ucl.bag.class";
+
+  /*
+    Holds the single factory object. The JVM initialises a class the first time it is used, and does so
+    exactly once even when several threads use it at the same moment, so the factory is created lazily,
+    only one is ever created, and every thread sees it fully constructed, all without any locking.
+   */
+  private static class Holder
+  {
+    static final BagFactory INSTANCE = new BagFactory();
+  }
 
   /**
-   * Return the single factory object, creating it if necessary.
-   * @return
+   * Return the single factory object, creating it if necessary. This is safe to call from any thread.
+   * @return The factory.
    */
   public static BagFactory getInstance()
   {
-    if (factory == null) factory = new BagFactory();
-    return factory;
+    return Holder.INSTANCE;
   }
 
-  // The name of the class that the factory will create objects of.
-  private String bagClass;
+  /**
+   * Creates a bag with a given initial capacity and maximum size. Every bag class has a constructor taking
+   * these two arguments, so a constructor reference such as ArrayBag::new can be used.
+   */
+  @FunctionalInterface
+  public interface BagConstructor
+  {
+    Bag create(int initialCapacity, int maxSize) throws BagException;
+  }
+
+  // The providers found when the factory was created, by name. If two providers have the same name the
+  // first one found is used.
+  private final Map<String, BagProvider> providers;
+
+  // The provider of the class that the factory will create objects of, or null if the name given was not
+  // recognised. The provider is looked up once, when the class is set, so creating a bag is a direct call.
+  // The field is volatile so that a change made by one thread is seen by all the others.
+  private volatile BagProvider provider;
 
   // The constructor is private to prevent code in any other class creating an instance.
   private BagFactory()
   {
+    Map<String, BagProvider> found = new LinkedHashMap<>();
+    for (BagProvider candidate : ServiceLoader.load(BagProvider.class, BagFactory.class.getClassLoader()))
+    {
+      found.putIfAbsent(candidate.name(), candidate);
+    }
+    providers = Collections.unmodifiableMap(found);
+    String configured = System.getProperty(BAG_CLASS_PROPERTY);
+    if (configured != null)
+    {
+      setBagClass(configured);
+    }
   }
 
   /**
    * Set the class that the factory creates instances of.
-   * @param aClass the name of the class.
+   * @param aClass the name of the class, which is the name of one of the available providers.
    */
 
   public void setBagClass(String aClass)
   {
-    bagClass = aClass;
+    provider = providers.get(aClass);
+  }
+
+  /**
+   * Return the providers of all the bag classes the factory can create, so that an application can choose
+   * one by its traits.
+   * @return The providers, in the order they were found.
+   */
+  public Collection<BagProvider> getProviders()
+  {
+    return providers.values();
+  }
+
+  /**
+   * Return the name of the first available bag class that has all the given traits.
+   * @param traits The traits required.
+   * @return The name of the class, or null if no provider has all the traits.
+   */
+  public String findBagClass(BagTrait... traits)
+  {
+    for (BagProvider candidate : providers.values())
+    {
+      if (candidate.traits().containsAll(Arrays.asList(traits)))
+      {
+        return candidate.name();
+      }
+    }
+    return null;
   }
 
   /**
-   * Create a bag that is an instance of the class the factory has been set to create.
+   * Create a bag that is an instance of the class the factory has been set to create. The bag is unbounded,
+   * growing as values are added.
    * @return The new bag.
    * @throws BagException If the class is not recognised as one from
    * which a bag object can be created.
    */
   public Bag<T> getBag() throws BagException
   {
-    return getBag(Bag.MAX_SIZE);
+    return getBag(Bag.DEFAULT_CAPACITY, Bag.UNBOUNDED);
   }
 
   /**
-   * Create a bag that is an instance of the class the factory has been set to create, with the
-   * given maximum bag size.
+   * Create a bounded bag that is an instance of the class the factory has been set to create, with the
+   * given maximum bag size. Adding a new value to the bag when it is full throws a BagException.
    * @param maxSize The maximum size of the new bag.
    * @return The new bag.
    * @throws BagException If the class is not recognised as one from
@@ -58,11 +137,48 @@ public class BagFactory<T extends Comparable>
    */
   public Bag<T> getBag(int maxSize) throws BagException
   {
-    if (bagClass.equals("ArrayBag"))
+    return getBag(Math.min(Bag.DEFAULT_CAPACITY, maxSize), maxSize);
+  }
+
+  /**
+   * Create an unbounded bag that is an instance of the class the factory has been set to create, presized to
+   * hold the given number of unique values without having to grow.
+   * @param initialCapacity The number of unique values to make room for.
+   * @return The new bag.
+   * @throws BagException If the class is not recognised as one from
+   * which a bag object can be created.
+   */
+  public Bag<T> getPresizedBag(int initialCapacity) throws BagException
+  {
+    return getBag(initialCapacity, Bag.UNBOUNDED);
+  }
+
+  /**
+   * Create a bag that is an instance of the class the factory has been set to create, with the
+   * given initial capacity and maximum bag size.
+   * @param initialCapacity The number of unique values to make room for.
+   * @param maxSize The maximum size of the new bag, or Bag.UNBOUNDED for no limit.
+   * @return The new bag.
+   * @throws BagException If the class is not recognised as one from
+   * which a bag object can be created, or the sizes are out of range.
+   */
+  public Bag<T> getBag(int initialCapacity, int maxSize) throws BagException
+  {
+    return getProvider().createBag(initialCapacity, maxSize);
+  }
+
+  /*
+    Return the provider of the class the factory has been set to create, so that code in this package can
+    find out which class it is without creating a bag.
+   */
+  BagProvider getProvider() throws BagException
+  {
+    BagProvider current = provider;
+    if (current == null)
     {
-      return new ArrayBag<T>(maxSize);
+      throw new BagException
+        ("Attempting to use BagFactory to create something that is not a Bag");
     }
-    throw new BagException
-      ("Attempting to use BagFactory to create something that is not a Bag");
+    return current;
   }
 }
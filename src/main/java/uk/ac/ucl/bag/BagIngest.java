@@ -0,0 +1,449 @@
+package uk.ac.ucl.bag;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts the words (tokens) in text files into bags. A token is a run of ASCII letters and digits and of
+ * bytes outside ASCII, so the UTF-8 encodings of other letters are kept within tokens; every other byte
+ * separates tokens. Tokens are case sensitive. A token longer than the buffer is counted whole, as the buffer
+ * grows to hold it.
+ *
+ * A file is read through a FileChannel into a large buffer and the tokens are found in the bytes directly.
+ * Each thread keeps a table of the tokens it has seen, looked up by their bytes, so a String is only created
+ * the first time a token is seen and repeated tokens cost a hash of their bytes and nothing more. The table
+ * also counts the tokens in each buffer full, and the counts are passed to the bag with one
+ * addWithOccurrences call per distinct token after each buffer is processed.
+ *
+ * A large file is split into one part for each thread. Each part is counted into its own bag, created by the
+ * BagFactory, and the bags are merged at the end with Bags.mergeAll. A token that crosses from one part into
+ * the next is counted by the part it starts in.
+ *
+ * The main method counts the files named on the command line and prints the most common tokens.
+ */
+public class BagIngest
+{
+  /**
+   * The size of the buffer each thread reads into, unless another size is given.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 22;
+
+  // Which byte values are part of a token.
+  private static final boolean[] TOKEN_BYTE = new boolean[256];
+
+  static
+  {
+    for (int b = 0 ; b < 256 ; b++)
+    {
+      TOKEN_BYTE[b] = (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b >= 0x80;
+    }
+  }
+
+  private final int bufferSize;
+  private final int threads;
+
+  /**
+   * Create an ingester using the default buffer size and one thread for each available processor.
+   */
+  public BagIngest()
+  {
+    this(DEFAULT_BUFFER_SIZE, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Create an ingester using the given buffer size and number of threads.
+   * @param bufferSize The number of bytes each thread reads at a time.
+   * @param threads The largest number of parts a file is split into.
+   * @throws IllegalArgumentException If either argument is less than 1.
+   */
+  public BagIngest(int bufferSize, int threads)
+  {
+    if (bufferSize < 1 || threads < 1)
+    {
+      throw new IllegalArgumentException("Buffer size and threads must be at least 1");
+    }
+    this.bufferSize = bufferSize;
+    this.threads = threads;
+  }
+
+  /**
+   * Count the tokens in a file into a new bag created by the BagFactory. A file larger than the buffer
+   * is split between the threads.
+   * @param file The file.
+   * @return The new bag.
+   * @throws IOException If the file cannot be read.
+   * @throws BagException If the factory cannot create a bag or a bag becomes full.
+   */
+  public Bag<String> count(Path file) throws IOException, BagException
+  {
+    long length;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+    {
+      length = channel.size();
+    }
+    int parts = (int) Math.max(1, Math.min(threads, length / bufferSize));
+    if (parts == 1)
+    {
+      Bag<String> bag = BagFactory.getInstance().getBag();
+      countRange(file, 0, length, bag);
+      return bag;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(parts);
+    List<Bag<String>> bags = new ArrayList<>();
+    try
+    {
+      List<Future<Bag<String>>> results = new ArrayList<>();
+      for (int part = 0 ; part < parts ; part++)
+      {
+        long start = length * part / parts;
+        long end = length * (part + 1) / parts;
+        Callable<Bag<String>> task = () ->
+        {
+          Bag<String> bag = BagFactory.getInstance().getBag();
+          countRange(file, start, end, bag);
+          return bag;
+        };
+        results.add(executor.submit(task));
+      }
+      for (Future<Bag<String>> result : results)
+      {
+        bags.add(result.get());
+      }
+      return Bags.mergeAll(bags, MergeMode.ALL_OCCURRENCES);
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof IOException)
+      {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof BagException)
+      {
+        throw (BagException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while counting " + file, e);
+    }
+    finally
+    {
+      executor.shutdownNow();
+      close(bags);
+    }
+  }
+
+  /*
+    Close the bags counted by each part once they have been merged, so that bags holding direct buffers, such
+    as OffHeapBag, free their memory at once.
+   */
+  private static void close(List<Bag<String>> bags) throws IOException
+  {
+    for (Bag<String> bag : bags)
+    {
+      if (bag instanceof AutoCloseable)
+      {
+        try
+        {
+          ((AutoCloseable) bag).close();
+        }
+        catch (Exception e)
+        {
+          throw new IOException("Cannot close a bag", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Count the tokens in a file into an existing bag, using the calling thread only.
+   * @param file The file.
+   * @param bag The bag to add the tokens to.
+   * @throws IOException If the file cannot be read.
+   * @throws BagException If the bag becomes full.
+   */
+  public void countInto(Path file, Bag<String> bag) throws IOException, BagException
+  {
+    countRange(file, 0, Long.MAX_VALUE, bag);
+  }
+
+  /*
+    Count the tokens that start at a file offset from start up to but not including end. A token that
+    starts before start is skipped, as the part before counts it, and a token that starts before end is
+    read to its end even if that is past end.
+
+    The scan keeps the offset in the buffer of the token it is in the middle of, or -1 between tokens. When
+    the buffer has been scanned the unfinished token is moved to the front of the buffer, and the rest is
+    filled from the file. If the token already fills the whole buffer, the buffer is doubled in size, so the
+    token is carried across as many refills as it takes to reach its end, even past end. A token being
+    skipped is not kept, so it needs no more room.
+   */
+  private void countRange(Path file, long start, long end, Bag<String> bag) throws IOException, BagException
+  {
+    TokenTable table = new TokenTable();
+    byte[] bytes = new byte[bufferSize];
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+    {
+      long position = start;
+      boolean skipping = false;
+      if (start > 0)
+      {
+        ByteBuffer previous = ByteBuffer.allocate(1);
+        skipping = channel.read(previous, start - 1) == 1 && TOKEN_BYTE[previous.get(0) & 0xFF];
+      }
+      int carried = 0;
+      int tokenStart = -1;
+      boolean done = false;
+      while (!done)
+      {
+        // The file offset of bytes[0].
+        long base = position - carried;
+        buffer.clear();
+        buffer.position(carried);
+        boolean endOfFile = false;
+        while (buffer.hasRemaining())
+        {
+          int read = channel.read(buffer, position);
+          if (read < 0)
+          {
+            endOfFile = true;
+            break;
+          }
+          position += read;
+        }
+        int limit = buffer.position();
+
+        for (int i = carried ; i < limit ; i++)
+        {
+          if (TOKEN_BYTE[bytes[i] & 0xFF])
+          {
+            if (tokenStart < 0)
+            {
+              if (base + i >= end)
+              {
+                done = true;
+                break;
+              }
+              tokenStart = i;
+            }
+          }
+          else
+          {
+            if (tokenStart >= 0 && !skipping)
+            {
+              table.add(bytes, tokenStart, i - tokenStart);
+            }
+            skipping = false;
+            tokenStart = -1;
+            if (base + i >= end)
+            {
+              done = true;
+              break;
+            }
+          }
+        }
+
+        if (!done)
+        {
+          if (endOfFile)
+          {
+            if (tokenStart >= 0 && !skipping)
+            {
+              table.add(bytes, tokenStart, limit - tokenStart);
+            }
+            done = true;
+          }
+          else if (tokenStart == 0 && skipping)
+          {
+            carried = 0;
+            tokenStart = -1;
+          }
+          else if (tokenStart == 0)
+          {
+            if (bytes.length > Integer.MAX_VALUE / 2)
+            {
+              throw new IOException("Token too long in " + file + " at offset " + base);
+            }
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            buffer = ByteBuffer.wrap(bytes);
+            carried = limit;
+          }
+          else if (tokenStart > 0)
+          {
+            carried = limit - tokenStart;
+            System.arraycopy(bytes, tokenStart, bytes, 0, carried);
+            tokenStart = 0;
+          }
+          else
+          {
+            carried = 0;
+          }
+        }
+        table.flush(bag);
+      }
+    }
+  }
+
+  /*
+    A hash table from the bytes of a token to the token as a String, with the number of times the token has
+    been seen since the counts were last passed to a bag. The bytes of every token are copied into one array,
+    and each token is identified by a number that indexes the arrays describing it. The index is an open
+    addressing table of token numbers plus one, with zero marking an empty slot, as in HashBag.
+   */
+  private static class TokenTable
+  {
+    private byte[] text = new byte[1 << 12];
+    private int textUsed = 0;
+    private int[] offsets = new int[64];
+    private int[] lengths = new int[64];
+    private int[] hashes = new int[64];
+    private String[] strings = new String[64];
+    private long[] counts = new long[64];
+    private int size = 0;
+    private int[] index = new int[128];
+    // The numbers of the tokens with a count above zero, in the order they were first counted.
+    private int[] touched = new int[64];
+    private int touchedSize = 0;
+
+    private boolean matches(int token, byte[] bytes, int offset, int length)
+    {
+      return lengths[token] == length
+        && Arrays.equals(text, offsets[token], offsets[token] + length, bytes, offset, offset + length);
+    }
+
+    void add(byte[] bytes, int offset, int length)
+    {
+      int hash = OffHeapBag.hashBytes(bytes, offset, length);
+      int mask = index.length - 1;
+      int slot = hash & mask;
+      while (index[slot] != 0)
+      {
+        int token = index[slot] - 1;
+        if (hashes[token] == hash && matches(token, bytes, offset, length))
+        {
+          count(token);
+          return;
+        }
+        slot = (slot + 1) & mask;
+      }
+      count(insert(bytes, offset, length, hash, slot));
+    }
+
+    private void count(int token)
+    {
+      if (counts[token]++ == 0)
+      {
+        if (touchedSize == touched.length)
+        {
+          touched = Arrays.copyOf(touched, touchedSize * 2);
+        }
+        touched[touchedSize++] = token;
+      }
+    }
+
+    private int insert(byte[] bytes, int offset, int length, int hash, int slot)
+    {
+      if (size == offsets.length)
+      {
+        int capacity = size * 2;
+        offsets = Arrays.copyOf(offsets, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        strings = Arrays.copyOf(strings, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+      }
+      if (textUsed + length > text.length)
+      {
+        text = Arrays.copyOf(text, Math.max(text.length * 2, textUsed + length));
+      }
+      System.arraycopy(bytes, offset, text, textUsed, length);
+      int token = size++;
+      offsets[token] = textUsed;
+      lengths[token] = length;
+      hashes[token] = hash;
+      strings[token] = new String(bytes, offset, length, StandardCharsets.UTF_8);
+      textUsed += length;
+      index[slot] = token + 1;
+      if (size * 2 > index.length)
+      {
+        rebuildIndex(index.length * 2);
+      }
+      return token;
+    }
+
+    private void rebuildIndex(int slots)
+    {
+      index = new int[slots];
+      int mask = slots - 1;
+      for (int token = 0 ; token < size ; token++)
+      {
+        int slot = hashes[token] & mask;
+        while (index[slot] != 0)
+        {
+          slot = (slot + 1) & mask;
+        }
+        index[slot] = token + 1;
+      }
+    }
+
+    /*
+      Pass the counts gathered since the last flush to the bag, one call per distinct token, and reset them.
+     */
+    void flush(Bag<String> bag) throws BagException
+    {
+      for (int i = 0 ; i < touchedSize ; i++)
+      {
+        int token = touched[i];
+        bag.addWithOccurrences(strings[token], counts[token]);
+        counts[token] = 0;
+      }
+      touchedSize = 0;
+    }
+  }
+
+  /**
+   * Count the tokens in the files named on the command line and print the twenty most common, with their
+   * counts. The bag class is taken from the uk.ac.ucl.bag.class system property, or is a HashBag if the
+   * property is not set.
+   * @param args The names of the files.
+   * @throws IOException If a file cannot be read.
+   * @throws BagException If a bag cannot be created.
+   */
+  public static void main(String[] args) throws IOException, BagException
+  {
+    BagFactory<String> factory = BagFactory.getInstance();
+    if (System.getProperty(BagFactory.BAG_CLASS_PROPERTY) == null)
+    {
+      factory.setBagClass("HashBag");
+    }
+    BagIngest ingest = new BagIngest();
+    List<Bag<String>> bags = new ArrayList<>();
+    for (String name : args)
+    {
+      bags.add(ingest.count(Paths.get(name)));
+    }
+    Bag<String> all = bags.size() == 1 ? bags.get(0) : Bags.mergeAll(bags, MergeMode.ALL_OCCURRENCES);
+    System.out.println(all.totalOccurrences() + " tokens, " + all.size() + " distinct");
+    for (BagEntry<String> entry : all.topK(20))
+    {
+      System.out.println(entry);
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package uk.ac.ucl.bag;
+
+import java.util.Set;
+
+/**
+ * A BagProvider makes a Bag implementation available to the BagFactory. Providers are found using the
+ * standard java.util.ServiceLoader mechanism, so a new implementation can be shipped in its own jar file and
+ * used without changing this library: the jar includes a class implementing BagProvider, which must be
+ * public and have a public no-argument constructor, and lists the class name in the file
+ * META-INF/services/uk.ac.ucl.bag.BagProvider. Once the jar is on the class path the provider's name can be
+ * passed to BagFactory.setBagClass.
+ */
+public interface BagProvider
+{
+  /**
+   * Return the name used to select this provider, for example in BagFactory.setBagClass.
+   * @return The name, which should be unique.
+   */
+  String name();
+
+  /**
+   * Return the traits of the bags this provider creates.
+   * @return The set of traits, possibly empty.
+   */
+  Set<BagTrait> traits();
+
+  /**
+   * Create a new bag.
+   * @param initialCapacity The number of unique values the bag should have room for before it needs to grow.
+   * @param maxSize The maximum number of unique values, or Bag.UNBOUNDED for no limit.
+   * @param <T> The type of the values in the bag.
+   * @return The new bag.
+   * @throws BagException If the sizes are out of range or the bag cannot be created.
+   */
+  <T extends Comparable> Bag<T> createBag(int initialCapacity, int maxSize) throws BagException;
+}
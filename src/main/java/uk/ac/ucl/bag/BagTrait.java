@@ -0,0 +1,30 @@
+package uk.ac.ucl.bag;
+
+/**
+ * The performance characteristics a BagProvider can declare for the bags it creates, so that an application
+ * can choose an implementation to suit its workload.
+ */
+public enum BagTrait
+{
+  /**
+   * The bags are SortedBags: their iterators return values in ascending order.
+   */
+  SORTED,
+
+  /**
+   * The bags can be used by several threads at once without external locking.
+   */
+  CONCURRENT,
+
+  /**
+   * The bags store primitive values without boxing and can only hold values of one wrapper type,
+   * such as Integer.
+   */
+  PRIMITIVE,
+
+  /**
+   * The bags enforce the maximum size they are created with. Bags without this trait accept the argument
+   * but may hold more values.
+   */
+  BOUNDED
+}
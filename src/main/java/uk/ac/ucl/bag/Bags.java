@@ -0,0 +1,150 @@
+package uk.ac.ucl.bag;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Static utility methods that work on collections of bags. The class cannot be instantiated.
+ */
+public final class Bags
+{
+  // A task merges this many bags itself rather than splitting the work further.
+  private static final int SEQUENTIAL_THRESHOLD = 4;
+
+  private Bags()
+  {
+  }
+
+  /*
+    Carries a BagException out of a fork/join task, whose compute method cannot throw checked exceptions.
+   */
+  private static class MergeFailure extends RuntimeException
+  {
+    public MergeFailure(BagException cause)
+    {
+      super(cause);
+    }
+  }
+
+  /*
+    Merges a range of the list of bags. Small ranges are merged directly into one accumulator. Larger ranges
+    are split in two, the halves merged in parallel, and then the smaller of the two accumulators is added
+    into the larger one, which becomes the result. No other intermediate bags are created, so merging k bags
+    allocates at most one accumulator per leaf task rather than one bag per pairwise step.
+    The accumulators are HashBags, as merging needs a fast lookup for every value added.
+   */
+  private static class MergeTask<T extends Comparable> extends RecursiveTask<HashBag<T>>
+  {
+    private final List<Bag<T>> bags;
+    private final int from;
+    private final int to;
+    private final MergeMode mode;
+
+    public MergeTask(List<Bag<T>> bags, int from, int to, MergeMode mode)
+    {
+      this.bags = bags;
+      this.from = from;
+      this.to = to;
+      this.mode = mode;
+    }
+
+    protected HashBag<T> compute()
+    {
+      try
+      {
+        if (to - from <= SEQUENTIAL_THRESHOLD)
+        {
+          long capacity = 0;
+          for (int i = from ; i < to ; i++)
+          {
+            capacity += bags.get(i).size();
+          }
+          HashBag<T> accumulator = new HashBag<>((int) Math.min(capacity, Integer.MAX_VALUE - 8), Bag.UNBOUNDED);
+          for (int i = from ; i < to ; i++)
+          {
+            addInto(accumulator, bags.get(i), mode);
+          }
+          return accumulator;
+        }
+        int middle = (from + to) >>> 1;
+        MergeTask<T> left = new MergeTask<>(bags, from, middle, mode);
+        left.fork();
+        HashBag<T> right = new MergeTask<>(bags, middle, to, mode).compute();
+        HashBag<T> leftResult = left.join();
+        if (leftResult.size() >= right.size())
+        {
+          addInto(leftResult, right, mode);
+          return leftResult;
+        }
+        addInto(right, leftResult, mode);
+        return right;
+      }
+      catch (BagException e)
+      {
+        throw new MergeFailure(e);
+      }
+    }
+  }
+
+  private static <T extends Comparable> void addInto(HashBag<T> accumulator, Bag<T> bag, MergeMode mode)
+    throws BagException
+  {
+    if (mode == MergeMode.ALL_OCCURRENCES)
+    {
+      AbstractBag.forEachEntry(bag,
+        (value, count) -> accumulator.addWithOccurrences(value, AbstractBag.exactCount(bag, value, count)));
+    }
+    else
+    {
+      for (T value : bag)
+      {
+        accumulator.addIfAbsent(value);
+      }
+    }
+  }
+
+  /**
+   * Merge any number of bags into a new bag, using the fork/join framework to spread the work across the
+   * available processor cores. The result is the same as chaining createMergedAllOccurrences or
+   * createMergedAllUnique over the bags, but the bags are combined as a tree rather than one at a time, and
+   * partial results are reused rather than copied at every step.
+   * The result is created by the BagFactory. The values must have a hashCode consistent with compareTo, as
+   * the merge is done using HashBags.
+   * @param bags The bags to merge. None of them is changed.
+   * @param mode Whether to add the counts together or give every value a count of 1.
+   * @param <T> The type of the values in the bags.
+   * @return The new bag.
+   * @throws BagException If the factory cannot create the result or a count becomes too large to store.
+   */
+  public static <T extends Comparable> Bag<T> mergeAll(Collection<? extends Bag<T>> bags, MergeMode mode)
+    throws BagException
+  {
+    List<Bag<T>> list = new ArrayList<>(bags);
+    HashBag<T> merged;
+    try
+    {
+      merged = list.isEmpty()
+        ? new HashBag<>()
+        : ForkJoinPool.commonPool().invoke(new MergeTask<>(list, 0, list.size(), mode));
+    }
+    catch (MergeFailure e)
+    {
+      throw (BagException) e.getCause();
+    }
+
+    // If the factory makes HashBags the accumulator can be returned as it is. The configured provider is
+    // checked rather than a bag created to find out, as some bags allocate memory that needs closing.
+    BagFactory<T> factory = BagFactory.getInstance();
+    if (factory.getProvider() instanceof BuiltInBagProviders.HashBagProvider)
+    {
+      return merged;
+    }
+    Bag<T> result = factory.getPresizedBag(merged.size());
+    AbstractBag.forEachEntry(merged,
+      (value, count) -> AbstractBag.addNew(result, value, AbstractBag.exactCount(merged, value, count)));
+    return result;
+  }
+}
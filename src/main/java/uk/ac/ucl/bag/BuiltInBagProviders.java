@@ -0,0 +1,131 @@
+package uk.ac.ucl.bag;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The providers for the bag implementations in this library. Each is a nested class so that it can be
+ * listed in META-INF/services/uk.ac.ucl.bag.BagProvider and created by the ServiceLoader, and each simply
+ * passes its name, traits and bag constructor to the shared base class.
+ */
+public final class BuiltInBagProviders
+{
+  private BuiltInBagProviders()
+  {
+  }
+
+  /*
+    Implements BagProvider on top of a BagConstructor.
+   */
+  private abstract static class SimpleBagProvider implements BagProvider
+  {
+    private final String name;
+    private final Set<BagTrait> traits;
+    private final BagFactory.BagConstructor constructor;
+
+    protected SimpleBagProvider(String name, BagFactory.BagConstructor constructor, Set<BagTrait> traits)
+    {
+      this.name = name;
+      this.constructor = constructor;
+      this.traits = Collections.unmodifiableSet(traits);
+    }
+
+    public String name()
+    {
+      return name;
+    }
+
+    public Set<BagTrait> traits()
+    {
+      return traits;
+    }
+
+    public <T extends Comparable> Bag<T> createBag(int initialCapacity, int maxSize) throws BagException
+    {
+      return constructor.create(initialCapacity, maxSize);
+    }
+  }
+
+  public static class ArrayBagProvider extends SimpleBagProvider
+  {
+    public ArrayBagProvider()
+    {
+      super("ArrayBag", ArrayBag::new, EnumSet.of(BagTrait.BOUNDED));
+    }
+  }
+
+  public static class HashBagProvider extends SimpleBagProvider
+  {
+    public HashBagProvider()
+    {
+      super("HashBag", HashBag::new, EnumSet.of(BagTrait.BOUNDED));
+    }
+  }
+
+  public static class TreeBagProvider extends SimpleBagProvider
+  {
+    public TreeBagProvider()
+    {
+      super("TreeBag", TreeBag::new, EnumSet.of(BagTrait.SORTED, BagTrait.BOUNDED));
+    }
+  }
+
+  public static class ConcurrentHashBagProvider extends SimpleBagProvider
+  {
+    public ConcurrentHashBagProvider()
+    {
+      super("ConcurrentHashBag", ConcurrentHashBag::new, EnumSet.of(BagTrait.CONCURRENT));
+    }
+  }
+
+  public static class AdaptiveBagProvider extends SimpleBagProvider
+  {
+    public AdaptiveBagProvider()
+    {
+      super("AdaptiveBag", AdaptiveBag::new, EnumSet.of(BagTrait.BOUNDED));
+    }
+  }
+
+  public static class RankedBagProvider extends SimpleBagProvider
+  {
+    public RankedBagProvider()
+    {
+      super("RankedBag", RankedBag::new, EnumSet.of(BagTrait.BOUNDED));
+    }
+  }
+
+  /*
+    Off-heap bags created by the factory store Strings, Integers and Longs; adding a value of any other class
+    fails with a BagException.
+   */
+  public static class OffHeapBagProvider extends SimpleBagProvider
+  {
+    public OffHeapBagProvider()
+    {
+      super("OffHeapBag", OffHeapBag::new, EnumSet.of(BagTrait.BOUNDED));
+    }
+  }
+
+  /*
+    The primitive bags are created through their Bag views, so they can only be used for Integer or Long
+    values; using them for anything else fails with a ClassCastException.
+   */
+  public static class IntBagProvider extends SimpleBagProvider
+  {
+    public IntBagProvider()
+    {
+      super("IntBag", (initialCapacity, maxSize) -> new IntBag(initialCapacity, maxSize).asBag(),
+        EnumSet.of(BagTrait.PRIMITIVE, BagTrait.BOUNDED));
+    }
+  }
+
+  public static class LongBagProvider extends SimpleBagProvider
+  {
+    public LongBagProvider()
+    {
+      super("LongBag", (initialCapacity, maxSize) -> new LongBag(initialCapacity, maxSize).asBag(),
+        EnumSet.of(BagTrait.PRIMITIVE, BagTrait.BOUNDED));
+    }
+  }
+}
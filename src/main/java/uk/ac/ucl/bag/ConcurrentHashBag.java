@@ -0,0 +1,319 @@
+package uk.ac.ucl.bag;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjIntConsumer;
+
+/*
+   This class implements Bags that can be used by many threads at once without any external locking.
+
+   The values are the keys of a ConcurrentHashMap, and each maps to an AtomicLong holding its count, so counts
+   can go past Integer.MAX_VALUE. Adding
+   and removing occurrences of a value already in the bag updates its counter with a compare-and-set loop, so
+   threads working on different values never wait for each other and threads working on the same value only
+   retry, rather than block, when they collide. New values are entered with putIfAbsent.
+
+   A counter that reaches zero is dead: it is removed from the map and never used again. A thread that finds a
+   dead counter (because it read the map just before the counter was removed) helps remove it and then tries
+   again, so a count that has reached zero can never be brought back to life and lost.
+
+   The iterators are weakly consistent, as those of ConcurrentHashMap are. They never throw
+   ConcurrentModificationException, and they reflect the state of the bag at some point at or after the
+   iterator was created. Values added or removed while iterating may or may not be seen, and
+   allOccurrencesIterator reads the count of each value when it reaches that value. In the same way size is
+   exact only when no other thread is changing the bag. In bounded mode the size limit is checked before a new
+   value is entered, so threads adding different new values at the same time can take the bag slightly past
+   its maximum size.
+
+   As with HashBag, values must have a hashCode and equals consistent with compareTo.
+ */
+public class ConcurrentHashBag<T extends Comparable> extends AbstractBag<T>
+{
+  private final int maxSize;
+  private final ConcurrentHashMap<T, AtomicLong> contents;
+  // The sum of the counts. A LongAdder spreads updates from different threads over separate cells, so
+  // keeping the total does not make every thread contend on one shared variable.
+  private final LongAdder total = new LongAdder();
+
+  /*
+    Create an unbounded bag, which grows as values are added.
+   */
+  public ConcurrentHashBag() throws BagException
+  {
+    this(DEFAULT_CAPACITY, UNBOUNDED);
+  }
+
+  /*
+    Create a bounded bag, which throws a BagException if a value is added when it already
+    holds maxSize unique values.
+   */
+  public ConcurrentHashBag(int maxSize) throws BagException
+  {
+    this(Math.min(DEFAULT_CAPACITY, maxSize), maxSize);
+  }
+
+  /*
+    Create a bag with room for initialCapacity unique values before it needs to grow. Pass UNBOUNDED
+    as maxSize for a bag with no size limit.
+   */
+  public ConcurrentHashBag(int initialCapacity, int maxSize) throws BagException
+  {
+    checkSizes(initialCapacity, maxSize);
+    this.maxSize = maxSize;
+    this.contents = new ConcurrentHashMap<>(Math.min(initialCapacity, maxSize));
+  }
+
+  public void add(T value) throws BagException
+  {
+    addWithOccurrences(value, 1);
+  }
+
+  public void addWithOccurrences(T value, int occurrences) throws BagException
+  {
+    addWithOccurrences(value, (long) occurrences);
+  }
+
+  public void addWithOccurrences(T value, long occurrences) throws BagException
+  {
+    checkOccurrences(occurrences);
+    if (occurrences == 0)
+    {
+      return;
+    }
+    while (true)
+    {
+      AtomicLong counter = contents.get(value);
+      if (counter == null)
+      {
+        if (contents.size() >= maxSize)
+        {
+          throw new BagException("Bag is full");
+        }
+        counter = contents.putIfAbsent(value, new AtomicLong(occurrences));
+        if (counter == null)
+        {
+          total.add(occurrences);
+          return;
+        }
+      }
+      long count = counter.get();
+      if (count == 0)
+      {
+        contents.remove(value, counter);
+        continue;
+      }
+      if (counter.compareAndSet(count, addToCount(count, occurrences)))
+      {
+        total.add(occurrences);
+        return;
+      }
+    }
+  }
+
+  public boolean contains(T value)
+  {
+    return countOf(value) > 0;
+  }
+
+  public int countOf(T value)
+  {
+    return saturatedCount(countOfLong(value));
+  }
+
+  public long countOfLong(T value)
+  {
+    AtomicLong counter = contents.get(value);
+    return counter != null ? counter.get() : 0;
+  }
+
+  public int removeOccurrences(T value, int n)
+  {
+    checkRemoveOccurrences(n);
+    while (n > 0)
+    {
+      AtomicLong counter = contents.get(value);
+      if (counter == null)
+      {
+        return 0;
+      }
+      long count = counter.get();
+      if (count == 0)
+      {
+        contents.remove(value, counter);
+        return 0;
+      }
+      int removed = (int) Math.min(count, n);
+      if (counter.compareAndSet(count, count - removed))
+      {
+        total.add(-removed);
+        if (count == removed)
+        {
+          contents.remove(value, counter);
+        }
+        return removed;
+      }
+    }
+    return 0;
+  }
+
+  public boolean isEmpty()
+  {
+    return size() == 0;
+  }
+
+  public int size()
+  {
+    return (int) Math.min(contents.mappingCount(), Integer.MAX_VALUE);
+  }
+
+  /*
+    Like size, this is exact only when no other thread is changing the bag.
+   */
+  public long totalOccurrences()
+  {
+    return total.sum();
+  }
+
+  /*
+    Weakly consistent, as the iterators are: each count is read when its value is reached, and dead counters
+    are skipped.
+   */
+  public void forEachEntry(ObjIntConsumer<? super T> action)
+  {
+    contents.forEach((value, counter) ->
+    {
+      long count = counter.get();
+      if (count > 0)
+      {
+        action.accept(value, saturatedCount(count));
+      }
+    });
+  }
+
+  /*
+    Walks the map entries, skipping any dead counters still in the map. When repeat is true each value is
+    returned as many times as its count, read when the iterator reaches the value; otherwise once.
+   */
+  private class ConcurrentHashBagIterator implements Iterator<T>
+  {
+    private final Iterator<Map.Entry<T, AtomicLong>> entries = contents.entrySet().iterator();
+    private final boolean repeat;
+    private T value;
+    private long remaining = 0;
+
+    public ConcurrentHashBagIterator(boolean repeat)
+    {
+      this.repeat = repeat;
+    }
+
+    public boolean hasNext()
+    {
+      while (remaining == 0 && entries.hasNext())
+      {
+        Map.Entry<T, AtomicLong> entry = entries.next();
+        long count = entry.getValue().get();
+        if (count > 0)
+        {
+          value = entry.getKey();
+          remaining = repeat ? count : 1;
+        }
+      }
+      return remaining > 0;
+    }
+
+    public T next()
+    {
+      if (!hasNext())
+      {
+        throw new NoSuchElementException();
+      }
+      remaining--;
+      return value;
+    }
+  }
+
+  public Iterator<T> iterator()
+  {
+    return new ConcurrentHashBagIterator(false);
+  }
+
+  public Iterator<T> allOccurrencesIterator()
+  {
+    return new ConcurrentHashBagIterator(true);
+  }
+
+  /*
+    Walks the map entries, skipping dead counters. Like the iterators it is weakly consistent: the count of
+    each value is read once, when the cursor reaches it, so count keeps returning that value.
+   */
+  private class ConcurrentHashBagCursor implements OccurrenceCursor<T>
+  {
+    private final Iterator<Map.Entry<T, AtomicLong>> entries = contents.entrySet().iterator();
+    private T value;
+    private int count;
+
+    public boolean advance()
+    {
+      while (entries.hasNext())
+      {
+        Map.Entry<T, AtomicLong> entry = entries.next();
+        long current = entry.getValue().get();
+        if (current > 0)
+        {
+          value = entry.getKey();
+          count = saturatedCount(current);
+          return true;
+        }
+      }
+      return false;
+    }
+
+    public T value()
+    {
+      return value;
+    }
+
+    public int count()
+    {
+      return count;
+    }
+  }
+
+  public OccurrenceCursor<T> occurrenceCursor()
+  {
+    return new ConcurrentHashBagCursor();
+  }
+
+  /*
+    The total is only an estimate while other threads change the bag, so the Spliterator is not sized.
+   */
+  public Spliterator<T> allOccurrencesSpliterator()
+  {
+    return new CursorOccurrenceSpliterator<>(this, occurrenceCursor(), -1);
+  }
+
+  /*
+    The map's key set Spliterator splits the table between threads. Like the iterators it is weakly
+    consistent, and it may include a value whose last occurrence is being removed at the same moment.
+   */
+  public Spliterator<T> spliterator()
+  {
+    return contents.keySet().spliterator();
+  }
+
+  /*
+    The number of entries is only an estimate while other threads change the bag, so it is not reported
+    as the exact size.
+   */
+  public Spliterator<BagEntry<T>> entrySpliterator()
+  {
+    return Spliterators.spliteratorUnknownSize(new CursorEntryIterator<>(occurrenceCursor()),
+      Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.CONCURRENT);
+  }
+}
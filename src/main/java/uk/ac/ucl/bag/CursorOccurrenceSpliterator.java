@@ -0,0 +1,141 @@
+package uk.ac.ucl.bag;
+
+import java.util.IdentityHashMap;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/*
+   A Spliterator returning every occurrence of every value, for bags that can only be walked in order with an
+   OccurrenceCursor. The runs are taken from the cursor as they are needed. Splitting copies the next batch of
+   values and counts into arrays and returns an OccurrenceSpliterator over them, which can be split further,
+   down to halves of a single run. The batches grow by BATCH_INCREMENT values at each split, so a small bag is
+   split into a few pieces and a large bag into larger ones, as the spliterators of the standard library do.
+
+   If the total number of occurrences is given, as it is for bags that keep their totalOccurrences exact, the
+   spliterator is SIZED and SUBSIZED: each batch is counted as it is split off, and subtracted from the total.
+   Otherwise only the batches are SIZED.
+
+   A cursor gives a count too large for an int as Integer.MAX_VALUE, so the full count of such a value is
+   looked up in the bag. A batch holding one keeps the excess in an OverflowCounts, as ArrayBag does.
+ */
+class CursorOccurrenceSpliterator<T extends Comparable> implements Spliterator<T>
+{
+  private static final int BATCH_INCREMENT = 1 << 10;
+  private static final int MAX_BATCH = 1 << 25;
+
+  private final Bag<T> bag;
+  private final OccurrenceCursor<T> cursor;
+  private T value;
+  private long remaining = 0;
+  private int batch = 0;
+  // The number of occurrences not yet returned or split off, or -1 if not known.
+  private long size;
+
+  CursorOccurrenceSpliterator(Bag<T> bag, OccurrenceCursor<T> cursor, long size)
+  {
+    this.bag = bag;
+    this.cursor = cursor;
+    this.size = size;
+  }
+
+  public boolean tryAdvance(Consumer<? super T> action)
+  {
+    if (remaining == 0)
+    {
+      if (!cursor.advance())
+      {
+        return false;
+      }
+      value = cursor.value();
+      remaining = AbstractBag.exactCount(bag, value, cursor.count());
+    }
+    remaining--;
+    if (size > 0)
+    {
+      size--;
+    }
+    action.accept(value);
+    return true;
+  }
+
+  public void forEachRemaining(Consumer<? super T> action)
+  {
+    if (size > 0)
+    {
+      size = 0;
+    }
+    for ( ; remaining > 0 ; remaining--)
+    {
+      action.accept(value);
+    }
+    while (cursor.advance())
+    {
+      T next = cursor.value();
+      for (long n = AbstractBag.exactCount(bag, next, cursor.count()) ; n > 0 ; n--)
+      {
+        action.accept(next);
+      }
+    }
+  }
+
+  public Spliterator<T> trySplit()
+  {
+    int length = Math.min(batch + BATCH_INCREMENT, MAX_BATCH);
+    Object[] values = new Object[length];
+    int[] counts = new int[length];
+    OverflowCounts<T> overflow = null;
+    int filled = 0;
+    long occurrences = 0;
+    if (remaining > 0)
+    {
+      overflow = store(values, counts, overflow, 0, value, remaining);
+      occurrences = remaining;
+      remaining = 0;
+      filled = 1;
+    }
+    while (filled < length && cursor.advance())
+    {
+      long count = AbstractBag.exactCount(bag, cursor.value(), cursor.count());
+      overflow = store(values, counts, overflow, filled, cursor.value(), count);
+      occurrences += count;
+      filled++;
+    }
+    if (filled == 0)
+    {
+      return null;
+    }
+    batch = filled;
+    if (size >= 0)
+    {
+      size = Math.max(0, size - occurrences);
+    }
+    return new OccurrenceSpliterator<>(values, counts, overflow, filled, occurrences);
+  }
+
+  /*
+    Store a value and its count at a position in a batch. The OverflowCounts is created the first time a count
+    is too large for an int, and is returned. The values in a batch are distinct objects, so it is keyed by
+    identity.
+   */
+  private static <T> OverflowCounts<T> store(Object[] values, int[] counts, OverflowCounts<T> overflow,
+                                             int position, T value, long count)
+  {
+    values[position] = value;
+    if (count > Integer.MAX_VALUE && overflow == null)
+    {
+      overflow = new OverflowCounts<>(new IdentityHashMap<>());
+    }
+    counts[position] = overflow != null ? overflow.setCount(value, count) : (int) count;
+    return overflow;
+  }
+
+  public long estimateSize()
+  {
+    return size >= 0 ? size : Long.MAX_VALUE;
+  }
+
+  public int characteristics()
+  {
+    return size >= 0 ? ORDERED | SIZED | SUBSIZED : ORDERED;
+  }
+}
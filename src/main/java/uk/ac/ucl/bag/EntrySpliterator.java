@@ -0,0 +1,67 @@
+package uk.ac.ucl.bag;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/*
+   A Spliterator returning a BagEntry for each position of a pair of parallel values and counts arrays, as used
+   by ArrayBag and HashBag. Splitting hands the first half of the remaining positions to a new spliterator, so
+   the pieces are always exactly sized, in the same way as the spliterators of the standard library arrays.
+   The arrays are not copied, so the bag must not be changed while the spliterator is in use.
+ */
+class EntrySpliterator<T> implements Spliterator<BagEntry<T>>
+{
+  private final Object[] values;
+  private final int[] counts;
+  private int position;
+  private final int end;
+
+  EntrySpliterator(Object[] values, int[] counts, int position, int end)
+  {
+    this.values = values;
+    this.counts = counts;
+    this.position = position;
+    this.end = end;
+  }
+
+  public boolean tryAdvance(Consumer<? super BagEntry<T>> action)
+  {
+    if (position < end)
+    {
+      action.accept(new BagEntry<>((T) values[position], counts[position]));
+      position++;
+      return true;
+    }
+    return false;
+  }
+
+  public void forEachRemaining(Consumer<? super BagEntry<T>> action)
+  {
+    for ( ; position < end ; position++)
+    {
+      action.accept(new BagEntry<>((T) values[position], counts[position]));
+    }
+  }
+
+  public Spliterator<BagEntry<T>> trySplit()
+  {
+    int middle = (position + end) >>> 1;
+    if (middle <= position)
+    {
+      return null;
+    }
+    Spliterator<BagEntry<T>> prefix = new EntrySpliterator<>(values, counts, position, middle);
+    position = middle;
+    return prefix;
+  }
+
+  public long estimateSize()
+  {
+    return end - position;
+  }
+
+  public int characteristics()
+  {
+    return ORDERED | DISTINCT | NONNULL | SIZED | SUBSIZED;
+  }
+}
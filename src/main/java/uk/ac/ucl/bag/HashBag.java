@@ -0,0 +1,471 @@
+package uk.ac.ucl.bag;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.function.ObjIntConsumer;
+import java.util.NoSuchElementException;
+
+/*
+   This class implements Bags using a hash index over a compact array layout, so add, contains, countOf and
+   remove take constant expected time rather than the linear scan done by ArrayBag.
+
+   The distinct values and their counts are held in parallel arrays (values, counts), packed into the
+   positions 0 to size - 1 in the order the values were first added. A separate open addressing table
+   (index) maps the hash of a value to its position in those arrays. Each slot of the index holds the
+   array position plus one, with zero marking an empty slot, and collisions are resolved by linear probing.
+   The hash code of every value is cached in the hashes array so the index can be rebuilt without calling
+   hashCode again.
+
+   When a value is removed entirely the last value is moved into the gap, so the arrays stay packed and the
+   iterators only ever walk over live entries.
+
+   Values are located using hashCode and then confirmed using compareTo, so the values stored in a HashBag
+   must have a hashCode that is consistent with compareTo (values that compare as 0 have the same hash code).
+   This is true of the standard library types such as String and Integer.
+ */
+public class HashBag<T extends Comparable> extends AbstractBag<T>
+{
+  private static final int MIN_CAPACITY = 8;
+
+  // The index has twice as many slots as the arrays have positions, up to this limit.
+  private static final int MAX_INDEX_SIZE = 1 << 30;
+
+  private int maxSize;
+  private int size;
+  private Object[] values;
+  private int[] counts;
+  private int[] hashes;
+  private int[] index;
+  // The sum of the counts, kept up to date by every method that changes a count.
+  private long total;
+  // The part of any count too large for an int, or null until a count first overflows.
+  private OverflowCounts<T> overflow;
+
+  /*
+    Create an unbounded bag, which grows as values are added.
+   */
+  public HashBag() throws BagException
+  {
+    this(DEFAULT_CAPACITY, UNBOUNDED);
+  }
+
+  /*
+    Create a bounded bag, which throws a BagException if a value is added when it already
+    holds maxSize unique values.
+   */
+  public HashBag(int maxSize) throws BagException
+  {
+    this(Math.min(DEFAULT_CAPACITY, maxSize), maxSize);
+  }
+
+  /*
+    Create a bag with room for initialCapacity unique values before it needs to grow. Pass UNBOUNDED
+    as maxSize for a bag with no size limit.
+   */
+  public HashBag(int initialCapacity, int maxSize) throws BagException
+  {
+    checkSizes(initialCapacity, maxSize);
+    this.maxSize = maxSize;
+    this.size = 0;
+    allocate(Math.max(MIN_CAPACITY, Math.min(initialCapacity, Math.min(maxSize, MAX_INDEX_SIZE - 1))));
+  }
+
+  /*
+    Return the number of index slots to use for the given array capacity: the smallest power of two that
+    keeps the index at most half full.
+   */
+  private static int indexSizeFor(int capacity)
+  {
+    if (capacity >= MAX_INDEX_SIZE / 2)
+    {
+      return MAX_INDEX_SIZE;
+    }
+    return Integer.highestOneBit(capacity * 2 - 1) << 1;
+  }
+
+  /*
+    Size the arrays for the given capacity, copying across any existing entries, and rebuild the index.
+   */
+  private void allocate(int capacity)
+  {
+    values = values == null ? new Object[capacity] : Arrays.copyOf(values, capacity);
+    counts = counts == null ? new int[capacity] : Arrays.copyOf(counts, capacity);
+    hashes = hashes == null ? new int[capacity] : Arrays.copyOf(hashes, capacity);
+    index = new int[indexSizeFor(capacity)];
+    for (int i = 0 ; i < size ; i++)
+    {
+      insertIntoIndex(i);
+    }
+  }
+
+  /*
+    Spread the bits of a hash code so that values whose hash codes differ only in the upper bits do not all
+    land in the same part of the index.
+   */
+  private static int spread(int hash)
+  {
+    return hash ^ (hash >>> 16);
+  }
+
+  /*
+    Return the position of value in the values array, or -1 if the value is not in the bag.
+   */
+  private int find(T value, int hash)
+  {
+    int mask = index.length - 1;
+    for (int slot = hash & mask ; index[slot] != 0 ; slot = (slot + 1) & mask)
+    {
+      int position = index[slot] - 1;
+      if (hashes[position] == hash && ((T) values[position]).compareTo(value) == 0)
+      {
+        return position;
+      }
+    }
+    return -1;
+  }
+
+  /*
+    Return the index slot that refers to the given array position. The position must be in the bag.
+   */
+  private int slotOf(int position)
+  {
+    int mask = index.length - 1;
+    int slot = hashes[position] & mask;
+    while (index[slot] != position + 1)
+    {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void insertIntoIndex(int position)
+  {
+    int mask = index.length - 1;
+    int slot = hashes[position] & mask;
+    while (index[slot] != 0)
+    {
+      slot = (slot + 1) & mask;
+    }
+    index[slot] = position + 1;
+  }
+
+  /*
+    Empty an index slot, then move back any following entries in the same probe run that would otherwise
+    no longer be reachable from their home slot. This avoids the need for tombstone markers.
+   */
+  private void deleteFromIndex(int slot)
+  {
+    int mask = index.length - 1;
+    int gap = slot;
+    int next = (gap + 1) & mask;
+    while (index[next] != 0)
+    {
+      int home = hashes[index[next] - 1] & mask;
+      // Move the entry into the gap unless its home slot lies cyclically in (gap, next].
+      if (((next - home) & mask) >= ((next - gap) & mask))
+      {
+        index[gap] = index[next];
+        gap = next;
+      }
+      next = (next + 1) & mask;
+    }
+    index[gap] = 0;
+  }
+
+  private void grow() throws BagException
+  {
+    // The index must always keep at least one empty slot, so the arrays can never reach its size.
+    if (values.length >= MAX_INDEX_SIZE - 1)
+    {
+      throw new BagException("Bag is full");
+    }
+    allocate((int) Math.min((long) values.length * 2, MAX_INDEX_SIZE - 1));
+  }
+
+  /*
+    Return the count of the value at position, including any part held in overflow.
+   */
+  private long countAt(int position)
+  {
+    return overflow != null ? overflow.count((T) values[position], counts[position]) : counts[position];
+  }
+
+  /*
+    Set the count of the value at position, moving any part too large for an int into overflow.
+   */
+  private void setCountAt(int position, long count)
+  {
+    if (overflow == null)
+    {
+      if (count <= Integer.MAX_VALUE)
+      {
+        counts[position] = (int) count;
+        return;
+      }
+      overflow = new OverflowCounts<>(new TreeMap<>());
+    }
+    counts[position] = overflow.setCount((T) values[position], count);
+  }
+
+  public void add(T value) throws BagException
+  {
+    addWithOccurrences(value, 1);
+  }
+
+  public void addWithOccurrences(T value, int occurrences) throws BagException
+  {
+    checkOccurrences(occurrences);
+    if (occurrences == 0)
+    {
+      return;
+    }
+    int hash = spread(value.hashCode());
+    int position = find(value, hash);
+    if (position >= 0)
+    {
+      if (counts[position] <= Integer.MAX_VALUE - occurrences)
+      {
+        counts[position] += occurrences;
+      }
+      else
+      {
+        setCountAt(position, addToCount(countAt(position), (long) occurrences));
+      }
+      total += occurrences;
+      return;
+    }
+    append(value, hash, occurrences);
+  }
+
+  public void addWithOccurrences(T value, long occurrences) throws BagException
+  {
+    checkOccurrences(occurrences);
+    if (occurrences == 0)
+    {
+      return;
+    }
+    int hash = spread(value.hashCode());
+    int position = find(value, hash);
+    if (position < 0)
+    {
+      // Append the part of the count that fits in an int, then add the rest to the new last position.
+      append(value, hash, saturatedCount(occurrences));
+      position = size - 1;
+      occurrences -= counts[position];
+      if (occurrences == 0)
+      {
+        return;
+      }
+    }
+    setCountAt(position, addToCount(countAt(position), occurrences));
+    total += occurrences;
+  }
+
+  private void append(T value, int hash, int occurrences) throws BagException
+  {
+    if (size >= maxSize)
+    {
+      throw new BagException("Bag is full");
+    }
+    if (size == values.length)
+    {
+      grow();
+    }
+    values[size] = value;
+    counts[size] = occurrences;
+    hashes[size] = hash;
+    insertIntoIndex(size);
+    size++;
+    total += occurrences;
+  }
+
+  /*
+    Add a single occurrence of a value if it is not already in the bag, with one probe of the index.
+    Return true if the value was added.
+   */
+  boolean addIfAbsent(T value) throws BagException
+  {
+    int hash = spread(value.hashCode());
+    if (find(value, hash) >= 0)
+    {
+      return false;
+    }
+    append(value, hash, 1);
+    return true;
+  }
+
+  /*
+    Add a value known not to be in the bag. The value still has to be entered in the index, but there is no
+    need to compare it against the values already there.
+   */
+  protected void addNew(T value, int occurrences) throws BagException
+  {
+    append(value, spread(value.hashCode()), occurrences);
+  }
+
+  public boolean contains(T value)
+  {
+    return find(value, spread(value.hashCode())) >= 0;
+  }
+
+  public int countOf(T value)
+  {
+    int position = find(value, spread(value.hashCode()));
+    return position >= 0 ? counts[position] : 0;
+  }
+
+  public long countOfLong(T value)
+  {
+    int position = find(value, spread(value.hashCode()));
+    return position >= 0 ? countAt(position) : 0;
+  }
+
+  public int removeOccurrences(T value, int n)
+  {
+    checkRemoveOccurrences(n);
+    int position = find(value, spread(value.hashCode()));
+    if (position < 0 || n == 0)
+    {
+      return 0;
+    }
+    if (overflow != null && counts[position] == Integer.MAX_VALUE && countAt(position) > n)
+    {
+      setCountAt(position, countAt(position) - n);
+      total -= n;
+      return n;
+    }
+    if (counts[position] > n)
+    {
+      counts[position] -= n;
+      total -= n;
+      return n;
+    }
+    int removed = counts[position];
+    total -= removed;
+    deleteFromIndex(slotOf(position));
+    int last = size - 1;
+    if (position != last)
+    {
+      // Move the last entry into the gap and repoint its index slot.
+      index[slotOf(last)] = position + 1;
+      values[position] = values[last];
+      counts[position] = counts[last];
+      hashes[position] = hashes[last];
+    }
+    values[last] = null;
+    size--;
+    return removed;
+  }
+
+  public boolean isEmpty()
+  {
+    return size == 0;
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  public long totalOccurrences()
+  {
+    return total;
+  }
+
+  public void forEachEntry(ObjIntConsumer<? super T> action)
+  {
+    for (int i = 0 ; i < size ; i++)
+    {
+      action.accept((T) values[i], counts[i]);
+    }
+  }
+
+  /*
+    Iterates through each unique value, walking the packed values array in order.
+   */
+  private class HashBagUniqueIterator implements Iterator<T>
+  {
+    private int position = 0;
+
+    public boolean hasNext()
+    {
+      return position < size;
+    }
+
+    public T next()
+    {
+      if (position >= size)
+      {
+        throw new NoSuchElementException();
+      }
+      return (T) values[position++];
+    }
+  }
+
+  public Iterator<T> iterator()
+  {
+    return new HashBagUniqueIterator();
+  }
+
+  /*
+    Iterates through every occurrence of every value. The remaining count for the current value is held
+    in a field so each call to next only touches the arrays when moving on to the next value.
+   */
+  private class HashBagIterator implements Iterator<T>
+  {
+    private int position = 0;
+    private long remaining = size > 0 ? countAt(0) : 0;
+
+    public boolean hasNext()
+    {
+      return remaining > 0 || position + 1 < size;
+    }
+
+    public T next()
+    {
+      if (remaining == 0)
+      {
+        if (position + 1 >= size)
+        {
+          throw new NoSuchElementException();
+        }
+        position++;
+        remaining = countAt(position);
+      }
+      remaining--;
+      return (T) values[position];
+    }
+  }
+
+  public Iterator<T> allOccurrencesIterator()
+  {
+    return new HashBagIterator();
+  }
+
+  public OccurrenceCursor<T> occurrenceCursor()
+  {
+    return new ArrayOccurrenceCursor<>(values, counts, size);
+  }
+
+  public Spliterator<T> allOccurrencesSpliterator()
+  {
+    return new OccurrenceSpliterator<>(values, counts, overflow, size, total);
+  }
+
+  /*
+    Splits the packed values array directly, so every piece knows its exact size.
+   */
+  public Spliterator<T> spliterator()
+  {
+    return Spliterators.spliterator(values, 0, size,
+      Spliterator.ORDERED | Spliterator.DISTINCT);
+  }
+
+  public Spliterator<BagEntry<T>> entrySpliterator()
+  {
+    return new EntrySpliterator<>(values, counts, 0, size);
+  }
+}
@@ -0,0 +1,476 @@
+package uk.ac.ucl.bag;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.ObjIntConsumer;
+
+/*
+   This class implements a bag of long values without boxing them. It uses the same layout as HashBag: the
+   distinct values and their counts are held in parallel arrays (a long array of keys and an int array of counts), packed into positions
+   0 to size - 1, and an open addressing index maps the hash of a value to its position. Adding, looking up
+   and removing a value therefore allocate nothing once the arrays are large enough, and each distinct value
+   costs a long and an int in the arrays plus two index slots, rather than a Long object and an Element object.
+
+   LongBag does not implement Bag, as the Bag methods take and return objects. Use asBag to get a view that
+   does implement Bag<Long>, for passing to code written against the Bag interface.
+ */
+public class LongBag
+{
+  private static final int MIN_CAPACITY = 8;
+  private static final int MAX_INDEX_SIZE = 1 << 30;
+
+  private int maxSize;
+  private int size;
+  private long[] keys;
+  private int[] counts;
+  private int[] index;
+  // The sum of the counts, kept up to date by every method that changes a count.
+  private long total;
+
+  /*
+    Create an unbounded bag, which grows as values are added.
+   */
+  public LongBag() throws BagException
+  {
+    this(Bag.DEFAULT_CAPACITY, Bag.UNBOUNDED);
+  }
+
+  /*
+    Create a bag with room for initialCapacity unique values before it needs to grow. Pass Bag.UNBOUNDED
+    as maxSize for a bag with no size limit.
+   */
+  public LongBag(int initialCapacity, int maxSize) throws BagException
+  {
+    AbstractBag.checkSizes(initialCapacity, maxSize);
+    this.maxSize = maxSize;
+    this.size = 0;
+    allocate(Math.max(MIN_CAPACITY, Math.min(initialCapacity, Math.min(maxSize, MAX_INDEX_SIZE - 1))));
+  }
+
+  /*
+    Mix the bits of a value so that runs of consecutive values are spread across the index.
+   */
+  private static int hash(long value)
+  {
+    int hash = (int) (value ^ (value >>> 32)) * 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+
+  private static int indexSizeFor(int capacity)
+  {
+    if (capacity >= MAX_INDEX_SIZE / 2)
+    {
+      return MAX_INDEX_SIZE;
+    }
+    return Integer.highestOneBit(capacity * 2 - 1) << 1;
+  }
+
+  private void allocate(int capacity)
+  {
+    keys = keys == null ? new long[capacity] : Arrays.copyOf(keys, capacity);
+    counts = counts == null ? new int[capacity] : Arrays.copyOf(counts, capacity);
+    index = new int[indexSizeFor(capacity)];
+    for (int i = 0 ; i < size ; i++)
+    {
+      insertIntoIndex(i);
+    }
+  }
+
+  private void grow() throws BagException
+  {
+    if (keys.length >= MAX_INDEX_SIZE - 1)
+    {
+      throw new BagException("Bag is full");
+    }
+    allocate((int) Math.min((long) keys.length * 2, MAX_INDEX_SIZE - 1));
+  }
+
+  /*
+    Return the position of value in the keys array, or -1 if the value is not in the bag.
+   */
+  private int find(long value)
+  {
+    int mask = index.length - 1;
+    for (int slot = hash(value) & mask ; index[slot] != 0 ; slot = (slot + 1) & mask)
+    {
+      int position = index[slot] - 1;
+      if (keys[position] == value)
+      {
+        return position;
+      }
+    }
+    return -1;
+  }
+
+  private int slotOf(int position)
+  {
+    int mask = index.length - 1;
+    int slot = hash(keys[position]) & mask;
+    while (index[slot] != position + 1)
+    {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void insertIntoIndex(int position)
+  {
+    int mask = index.length - 1;
+    int slot = hash(keys[position]) & mask;
+    while (index[slot] != 0)
+    {
+      slot = (slot + 1) & mask;
+    }
+    index[slot] = position + 1;
+  }
+
+  /*
+    Empty an index slot using backward shift deletion, as in HashBag.
+   */
+  private void deleteFromIndex(int slot)
+  {
+    int mask = index.length - 1;
+    int gap = slot;
+    int next = (gap + 1) & mask;
+    while (index[next] != 0)
+    {
+      int home = hash(keys[index[next] - 1]) & mask;
+      if (((next - home) & mask) >= ((next - gap) & mask))
+      {
+        index[gap] = index[next];
+        gap = next;
+      }
+      next = (next + 1) & mask;
+    }
+    index[gap] = 0;
+  }
+
+  /**
+   * Add a value to the bag.
+   * @param value The value to add.
+   * @throws BagException If the bag is bounded and full, or the count of the value would overflow.
+   */
+  public void add(long value) throws BagException
+  {
+    addWithOccurrences(value, 1);
+  }
+
+  /**
+   * Add the given number of occurrences of value to the bag, with a single lookup.
+   * @param value The value to add.
+   * @param occurrences The number of occurrences of the value.
+   * @throws BagException If the bag is bounded and full, occurrences is negative or the count of the value
+   * would overflow.
+   */
+  public void addWithOccurrences(long value, int occurrences) throws BagException
+  {
+    AbstractBag.checkOccurrences(occurrences);
+    if (occurrences == 0)
+    {
+      return;
+    }
+    int position = find(value);
+    if (position >= 0)
+    {
+      counts[position] = AbstractBag.addToCount(counts[position], occurrences);
+      total += occurrences;
+      return;
+    }
+    if (size >= maxSize)
+    {
+      throw new BagException("Bag is full");
+    }
+    if (size == keys.length)
+    {
+      grow();
+    }
+    keys[size] = value;
+    counts[size] = occurrences;
+    insertIntoIndex(size);
+    size++;
+    total += occurrences;
+  }
+
+  /**
+   * Check if the bag contains a value.
+   * @param value The value to look for.
+   * @return True if the bag contains the value, false otherwise.
+   */
+  public boolean contains(long value)
+  {
+    return find(value) >= 0;
+  }
+
+  /**
+   * Return the number of occurrences (count) of a value in the bag.
+   * @param value The value to look for.
+   * @return The number of occurrences.
+   */
+  public int countOf(long value)
+  {
+    int position = find(value);
+    return position >= 0 ? counts[position] : 0;
+  }
+
+  /**
+   * Remove an occurrence of value from the bag. If the last occurrence is removed,
+   * remove the value as well. Do nothing if the value is not in the bag.
+   * @param value The value to remove.
+   */
+  public void remove(long value)
+  {
+    removeOccurrences(value, 1);
+  }
+
+  /**
+   * Remove up to n occurrences of value from the bag, with a single lookup.
+   * @param value The value to remove.
+   * @param n The number of occurrences to remove.
+   * @return The number of occurrences actually removed.
+   * @throws IllegalArgumentException If n is negative.
+   */
+  public int removeOccurrences(long value, int n)
+  {
+    AbstractBag.checkRemoveOccurrences(n);
+    int position = find(value);
+    if (position < 0 || n == 0)
+    {
+      return 0;
+    }
+    if (counts[position] > n)
+    {
+      counts[position] -= n;
+      total -= n;
+      return n;
+    }
+    int removed = counts[position];
+    total -= removed;
+    deleteFromIndex(slotOf(position));
+    int last = size - 1;
+    if (position != last)
+    {
+      index[slotOf(last)] = position + 1;
+      keys[position] = keys[last];
+      counts[position] = counts[last];
+    }
+    size--;
+    return removed;
+  }
+
+  /**
+   * Remove a value from the bag along with all its occurrences.
+   * @param value The value to remove.
+   * @return The number of occurrences removed.
+   */
+  public int removeAll(long value)
+  {
+    return removeOccurrences(value, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Determine the number of distinct values stored in the bag.
+   * @return The number of distinct values in the bag.
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Return the total number of occurrences of all the values in the bag, in constant time.
+   * @return The total number of occurrences.
+   */
+  public long totalOccurrences()
+  {
+    return total;
+  }
+
+  /**
+   * Check if the bag is empty.
+   * @return True if the bag is empty, false otherwise.
+   */
+  public boolean isEmpty()
+  {
+    return size == 0;
+  }
+
+  /*
+    Iterates through each unique value without boxing.
+   */
+  private class LongBagUniqueIterator implements PrimitiveIterator.OfLong
+  {
+    private int position = 0;
+
+    public boolean hasNext()
+    {
+      return position < size;
+    }
+
+    public long nextLong()
+    {
+      if (position >= size)
+      {
+        throw new NoSuchElementException();
+      }
+      return keys[position++];
+    }
+  }
+
+  /**
+   * Return an iterator giving each unique value in turn, without boxing.
+   * @return The new iterator.
+   */
+  public PrimitiveIterator.OfLong iterator()
+  {
+    return new LongBagUniqueIterator();
+  }
+
+  /*
+    Iterates through every occurrence of every value without boxing.
+   */
+  private class LongBagIterator implements PrimitiveIterator.OfLong
+  {
+    private int position = 0;
+    private int remaining = size > 0 ? counts[0] : 0;
+
+    public boolean hasNext()
+    {
+      return remaining > 0 || position + 1 < size;
+    }
+
+    public long nextLong()
+    {
+      if (remaining == 0)
+      {
+        if (position + 1 >= size)
+        {
+          throw new NoSuchElementException();
+        }
+        position++;
+        remaining = counts[position];
+      }
+      remaining--;
+      return keys[position];
+    }
+  }
+
+  /**
+   * Return an iterator giving every occurrence of every value, without boxing.
+   * @return The new iterator.
+   */
+  public PrimitiveIterator.OfLong allOccurrencesIterator()
+  {
+    return new LongBagIterator();
+  }
+
+  /*
+    Walks the packed arrays for the Bag view, boxing each value as the cursor reaches it.
+   */
+  private class LongBagCursor implements OccurrenceCursor<Long>
+  {
+    private int position = -1;
+
+    public boolean advance()
+    {
+      if (position + 1 < size)
+      {
+        position++;
+        return true;
+      }
+      position = size;
+      return false;
+    }
+
+    public Long value()
+    {
+      return keys[position];
+    }
+
+    public int count()
+    {
+      return counts[position];
+    }
+  }
+
+  /*
+    A view of an LongBag as a Bag<Long>. Every method forwards to the LongBag, unboxing the arguments and
+    boxing the results, so changes made through the view are seen in the LongBag and the other way round.
+   */
+  private class LongBagView extends AbstractBag<Long>
+  {
+    public void add(Long value) throws BagException
+    {
+      LongBag.this.add(value);
+    }
+
+    public void addWithOccurrences(Long value, int occurrences) throws BagException
+    {
+      LongBag.this.addWithOccurrences(value, occurrences);
+    }
+
+    public boolean contains(Long value)
+    {
+      return LongBag.this.contains(value);
+    }
+
+    public int countOf(Long value)
+    {
+      return LongBag.this.countOf(value);
+    }
+
+    public int removeOccurrences(Long value, int n)
+    {
+      return LongBag.this.removeOccurrences(value, n);
+    }
+
+    public int size()
+    {
+      return LongBag.this.size();
+    }
+
+    public boolean isEmpty()
+    {
+      return LongBag.this.isEmpty();
+    }
+
+    public long totalOccurrences()
+    {
+      return LongBag.this.totalOccurrences();
+    }
+
+    public void forEachEntry(ObjIntConsumer<? super Long> action)
+    {
+      for (int i = 0 ; i < size ; i++)
+      {
+        action.accept(keys[i], counts[i]);
+      }
+    }
+
+    public Iterator<Long> iterator()
+    {
+      return LongBag.this.iterator();
+    }
+
+    public Iterator<Long> allOccurrencesIterator()
+    {
+      return LongBag.this.allOccurrencesIterator();
+    }
+
+    public OccurrenceCursor<Long> occurrenceCursor()
+    {
+      return new LongBagCursor();
+    }
+  }
+
+  /**
+   * Return a view of this bag that implements Bag<Long>. The view boxes values as they pass through
+   * it, so use the methods of LongBag directly where the values are already longs.
+   * @return The view.
+   */
+  public Bag<Long> asBag()
+  {
+    return new LongBagView();
+  }
+}
@@ -1,6 +1,6 @@
 package uk.ac.ucl.bag;
 
-import java.util.Iterator;
+import java.util.StringJoiner;
 
 /**
  * Example code illustrating the use of Bag objects.
@@ -24,16 +24,15 @@ public class Main
 
   public void printAll(Bag<String> bag)
   {
-    boolean first = true;
-    System.out.print("{");
-    Iterator<String> allIterator = bag.allOccurrencesIterator();
-    while (allIterator.hasNext())
+    StringJoiner all = new StringJoiner(" , ", "{", "}");
+    bag.forEachEntry((value, count) ->
     {
-      if (!first) { System.out.print(" , "); }
-      first = false;
-      System.out.print(allIterator.next());
-    }
-    System.out.println("}");
+      for (int i = 0 ; i < count ; i++)
+      {
+        all.add(value);
+      }
+    });
+    System.out.println(all);
   }
 
   public void go()
@@ -0,0 +1,491 @@
+package uk.ac.ucl.bag;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.ObjIntConsumer;
+
+/*
+   This class implements read-only Bags over a file mapped into memory, so that a very large table of counts
+   built once can be opened in an instant and shared by every run of a program. Nothing is read into the heap
+   when the bag is opened: the operating system pages the parts of the file that are used into memory as they
+   are touched, and keeps them in its file cache between runs.
+
+   The file is written by the static write method. It holds a header, then an index giving the file offset of
+   each record, then the records themselves, one for each unique value in ascending order of value. A record
+   is the value, written by a ValueCodec, followed by its count as a variable length integer, as in BagCodec.
+   contains and countOf do a binary search of the index, decoding the value of each record they probe, so they
+   take O(log n) time, and the iterators read the records in order without using the index.
+
+   A single MappedByteBuffer cannot be larger than 2GB, so the file is mapped in chunks. Each chunk overlaps
+   the next by the length of the longest record, which is recorded in the header, so every record can be read
+   from the chunk it starts in. The mappings are released when the bag is garbage collected.
+
+   The methods that change a bag throw UnsupportedOperationException. To change the counts, copy the bag into
+   another kind of bag with createMergedAllOccurrences or Bags.mergeAll. As the bag never changes, any number
+   of threads can read it at once.
+ */
+public class MappedBag<T extends Comparable> extends AbstractBag<T> implements SortedBag<T>
+{
+  // The first four bytes of a mapped bag file, "BAGM" in ASCII.
+  static final int MAGIC = 0x4241474D;
+  static final int VERSION = 1;
+
+  // The header holds the magic number, version, number of unique values, total occurrences and longest record.
+  private static final int HEADER_SIZE = 32;
+
+  // The size of the buffers used when writing, which is also the longest record that can be written.
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  // Map the file in chunks of 1GB, plus the overlap.
+  private static final int DEFAULT_CHUNK_SHIFT = 30;
+
+  private final ValueCodec<T> values;
+  private final MappedByteBuffer[] chunks;
+  private final int chunkShift;
+  private final long chunkMask;
+  private final int size;
+  private final long total;
+
+  /**
+   * Open a file written by MappedBag.write as a bag.
+   * @param file The file.
+   * @param values The codec the values were written with.
+   * @throws IOException If the file cannot be mapped or was not written by MappedBag.write.
+   */
+  public MappedBag(Path file, ValueCodec<T> values) throws IOException
+  {
+    this(file, values, DEFAULT_CHUNK_SHIFT);
+  }
+
+  /*
+    Open a file mapping it in chunks of 2 to the power chunkShift bytes. Tests use small chunks so that
+    records crossing a chunk boundary are exercised with a small file.
+   */
+  MappedBag(Path file, ValueCodec<T> values, int chunkShift) throws IOException
+  {
+    this.values = values;
+    this.chunkShift = chunkShift;
+    this.chunkMask = (1L << chunkShift) - 1;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+    {
+      long length = channel.size();
+      if (length < HEADER_SIZE)
+      {
+        throw new StreamCorruptedException("Not a mapped bag file");
+      }
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+      long longestRecord;
+      if (header.getInt() != MAGIC || header.getInt() != VERSION)
+      {
+        throw new StreamCorruptedException("Not a mapped bag file");
+      }
+      long distinct = header.getLong();
+      total = header.getLong();
+      longestRecord = header.getInt();
+      if (distinct < 0 || distinct > Integer.MAX_VALUE || longestRecord < 0 || longestRecord > BUFFER_SIZE
+        || length < HEADER_SIZE + 8 * distinct)
+      {
+        throw new StreamCorruptedException("Mapped bag file header is damaged");
+      }
+      size = (int) distinct;
+      chunks = new MappedByteBuffer[(int) ((length + chunkMask) >>> chunkShift)];
+      for (int i = 0 ; i < chunks.length ; i++)
+      {
+        long start = (long) i << chunkShift;
+        long chunkLength = Math.min(length - start, (1L << chunkShift) + longestRecord);
+        chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, chunkLength);
+      }
+    }
+  }
+
+  /**
+   * Write a bag to a file in the form read by MappedBag, replacing the file if it exists. The records are
+   * taken in order from the cursor of a SortedBag; the values of any other kind of bag are sorted first.
+   * @param bag The bag, which must not be changed while it is written.
+   * @param values The codec to write the values with.
+   * @param file The file.
+   * @param <T> The type of the values.
+   * @throws IOException If the file cannot be written or a value takes more than 1MB.
+   */
+  public static <T extends Comparable> void write(Bag<T> bag, ValueCodec<T> values, Path file) throws IOException
+  {
+    int size = bag.size();
+    OccurrenceCursor<T> cursor = bag instanceof SortedBag ? bag.occurrenceCursor() : sortedCursor(bag, size);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+      StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+    {
+      ByteBuffer index = ByteBuffer.allocate(BUFFER_SIZE);
+      ByteBuffer records = ByteBuffer.allocate(BUFFER_SIZE);
+      long indexPosition = HEADER_SIZE;
+      long recordPosition = HEADER_SIZE + 8L * size;
+      long total = 0;
+      int longestRecord = 0;
+      int written = 0;
+      while (written < size && cursor.advance())
+      {
+        long count = cursor instanceof SortedCursor ? ((SortedCursor<T>) cursor).exactCount()
+          : exactCount(bag, cursor.value(), cursor.count());
+        int start = records.position();
+        try
+        {
+          writeRecord(values, cursor.value(), count, records);
+        }
+        catch (BufferOverflowException e)
+        {
+          records.position(start);
+          recordPosition += flush(channel, records, recordPosition);
+          start = 0;
+          try
+          {
+            writeRecord(values, cursor.value(), count, records);
+          }
+          catch (BufferOverflowException tooLarge)
+          {
+            throw new IOException("Value too large to write: " + cursor.value());
+          }
+        }
+        if (!index.hasRemaining())
+        {
+          indexPosition += flush(channel, index, indexPosition);
+        }
+        index.putLong(recordPosition + start);
+        longestRecord = Math.max(longestRecord, records.position() - start);
+        total += count;
+        written++;
+      }
+      if (written < size || cursor.advance())
+      {
+        throw new ConcurrentModificationException("Bag changed while being written");
+      }
+      flush(channel, index, indexPosition);
+      flush(channel, records, recordPosition);
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).putLong(size).putLong(total).putInt(longestRecord).putInt(0);
+      flush(channel, header, 0);
+    }
+  }
+
+  private static <T extends Comparable> void writeRecord(ValueCodec<T> values, T value, long count,
+                                                         ByteBuffer records)
+  {
+    values.write(value, records);
+    BagCodec.writeVarLong(count, records);
+  }
+
+  /*
+    Write out the contents of a buffer at the given file position and empty it, returning the number
+    of bytes written.
+   */
+  private static long flush(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+  {
+    buffer.flip();
+    long written = 0;
+    while (buffer.hasRemaining())
+    {
+      written += channel.write(buffer, position + written);
+    }
+    buffer.clear();
+    return written;
+  }
+
+  /*
+    Sort the contents of a bag that does not keep its values in order, returning a cursor over the sorted
+    values and their counts. The values and counts are taken together from the bag's cursor, so no value is
+    looked up again.
+   */
+  private static <T extends Comparable> SortedCursor<T> sortedCursor(Bag<T> bag, int size)
+  {
+    SortedEntry<T>[] entries = new SortedEntry[size];
+    OccurrenceCursor<T> cursor = bag.occurrenceCursor();
+    int n = 0;
+    while (cursor.advance())
+    {
+      if (n == size)
+      {
+        throw new ConcurrentModificationException("Bag changed while being written");
+      }
+      entries[n++] = new SortedEntry<>(cursor.value(), exactCount(bag, cursor.value(), cursor.count()));
+    }
+    Arrays.sort(entries, 0, n);
+    return new SortedCursor<>(entries, n);
+  }
+
+  /*
+    A value and its exact count, ordered by the value.
+   */
+  private static class SortedEntry<T extends Comparable> implements Comparable<SortedEntry<T>>
+  {
+    private final T value;
+    private final long count;
+
+    private SortedEntry(T value, long count)
+    {
+      this.value = value;
+      this.count = count;
+    }
+
+    public int compareTo(SortedEntry<T> other)
+    {
+      return value.compareTo(other.value);
+    }
+  }
+
+  /*
+    An OccurrenceCursor over sorted entries, which also gives the exact count of the current value so that
+    counts too large for an int need not be looked up in the bag again.
+   */
+  private static class SortedCursor<T extends Comparable> implements OccurrenceCursor<T>
+  {
+    private final SortedEntry<T>[] entries;
+    private final int size;
+    private int position = -1;
+
+    private SortedCursor(SortedEntry<T>[] entries, int size)
+    {
+      this.entries = entries;
+      this.size = size;
+    }
+
+    public boolean advance()
+    {
+      if (position + 1 < size)
+      {
+        position++;
+        return true;
+      }
+      position = size;
+      return false;
+    }
+
+    public T value()
+    {
+      return entries[position].value;
+    }
+
+    public int count()
+    {
+      return saturatedCount(entries[position].count);
+    }
+
+    private long exactCount()
+    {
+      return entries[position].count;
+    }
+  }
+
+  /*
+    Return a buffer positioned at the given file offset. Each call makes a new view of the chunk, so
+    threads reading at the same time do not disturb each other's positions.
+   */
+  private ByteBuffer bufferAt(long offset)
+  {
+    ByteBuffer buffer = chunks[(int) (offset >>> chunkShift)].duplicate();
+    buffer.position((int) (offset & chunkMask));
+    return buffer;
+  }
+
+  private long recordOffset(int index)
+  {
+    long offset = HEADER_SIZE + 8L * index;
+    return chunks[(int) (offset >>> chunkShift)].getLong((int) (offset & chunkMask));
+  }
+
+  /*
+    Binary search the index for value, returning its count, or 0 if it is not in the bag.
+   */
+  private long find(T value)
+  {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high)
+    {
+      int middle = (low + high) >>> 1;
+      ByteBuffer record = bufferAt(recordOffset(middle));
+      int order = values.read(record).compareTo(value);
+      if (order < 0)
+      {
+        low = middle + 1;
+      }
+      else if (order > 0)
+      {
+        high = middle - 1;
+      }
+      else
+      {
+        return BagCodec.readVarLong(record);
+      }
+    }
+    return 0;
+  }
+
+  public boolean contains(T value)
+  {
+    return find(value) > 0;
+  }
+
+  public int countOf(T value)
+  {
+    return saturatedCount(find(value));
+  }
+
+  public long countOfLong(T value)
+  {
+    return find(value);
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  public long totalOccurrences()
+  {
+    return total;
+  }
+
+  public boolean isEmpty()
+  {
+    return size == 0;
+  }
+
+  private static UnsupportedOperationException readOnly()
+  {
+    return new UnsupportedOperationException("A MappedBag cannot be changed");
+  }
+
+  public void add(T value)
+  {
+    throw readOnly();
+  }
+
+  public void addWithOccurrences(T value, int occurrences)
+  {
+    throw readOnly();
+  }
+
+  public void addWithOccurrences(T value, long occurrences)
+  {
+    throw readOnly();
+  }
+
+  public int removeOccurrences(T value, int n)
+  {
+    throw readOnly();
+  }
+
+  /*
+    Reads the records one after another from the start of the records section. When a record ends past the
+    end of its chunk, reading moves on to the next chunk, where the following record starts.
+   */
+  private class MappedCursor implements OccurrenceCursor<T>
+  {
+    private int remaining = size;
+    private int chunk;
+    private ByteBuffer buffer;
+    private T value;
+    private long count;
+
+    MappedCursor()
+    {
+      long start = HEADER_SIZE + 8L * size;
+      chunk = (int) (start >>> chunkShift);
+      if (size > 0)
+      {
+        buffer = bufferAt(start);
+      }
+    }
+
+    public boolean advance()
+    {
+      if (remaining == 0)
+      {
+        return false;
+      }
+      if (buffer.position() > chunkMask)
+      {
+        int position = (int) (buffer.position() - chunkMask - 1);
+        buffer = chunks[++chunk].duplicate();
+        buffer.position(position);
+      }
+      value = values.read(buffer);
+      count = BagCodec.readVarLong(buffer);
+      remaining--;
+      return true;
+    }
+
+    public T value()
+    {
+      return value;
+    }
+
+    public int count()
+    {
+      return saturatedCount(count);
+    }
+  }
+
+  public OccurrenceCursor<T> occurrenceCursor()
+  {
+    return new MappedCursor();
+  }
+
+  public void forEachEntry(ObjIntConsumer<? super T> action)
+  {
+    MappedCursor cursor = new MappedCursor();
+    while (cursor.advance())
+    {
+      action.accept(cursor.value, cursor.count());
+    }
+  }
+
+  private class MappedBagIterator implements Iterator<T>
+  {
+    private final MappedCursor cursor = new MappedCursor();
+    private final boolean allOccurrences;
+    private long left = 0;
+
+    MappedBagIterator(boolean allOccurrences)
+    {
+      this.allOccurrences = allOccurrences;
+    }
+
+    public boolean hasNext()
+    {
+      return left > 0 || cursor.remaining > 0;
+    }
+
+    public T next()
+    {
+      if (left == 0)
+      {
+        if (!cursor.advance())
+        {
+          throw new NoSuchElementException();
+        }
+        left = allOccurrences ? cursor.count : 1;
+      }
+      left--;
+      return cursor.value;
+    }
+  }
+
+  public Iterator<T> iterator()
+  {
+    return new MappedBagIterator(false);
+  }
+
+  public Iterator<T> allOccurrencesIterator()
+  {
+    return new MappedBagIterator(true);
+  }
+}
@@ -0,0 +1,19 @@
+package uk.ac.ucl.bag;
+
+/**
+ * Selects how Bags.mergeAll combines the counts of the bags it merges, matching the two merge methods of Bag.
+ */
+public enum MergeMode
+{
+  /**
+   * The count of each value in the result is the sum of its counts in the bags merged, as with
+   * Bag.createMergedAllOccurrences.
+   */
+  ALL_OCCURRENCES,
+
+  /**
+   * Each value in any of the bags merged appears in the result with a count of 1, as with
+   * Bag.createMergedAllUnique.
+   */
+  ALL_UNIQUE
+}
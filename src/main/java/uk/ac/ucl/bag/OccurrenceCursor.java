@@ -0,0 +1,34 @@
+package uk.ac.ucl.bag;
+
+/**
+ * A cursor that walks the contents of a bag one unique value at a time, giving each value together with its
+ * count. This is a run-length view of the all occurrences iterator: a value with a count of a million is
+ * visited once, rather than a million times, and the code using the cursor can expand the run however suits
+ * it, for example by adding the count to a total or writing the value that many times in one go.
+ *
+ * A new cursor is positioned before the first value, so advance must be called before value or count.
+ * The bag must not be changed while a cursor is in use, except for bags that say their cursors are weakly
+ * consistent.
+ *
+ * @param <T> The type of the values in the bag.
+ */
+public interface OccurrenceCursor<T>
+{
+  /**
+   * Move to the next unique value.
+   * @return True if there is a next value, false if the cursor has passed the last value.
+   */
+  boolean advance();
+
+  /**
+   * Return the value the cursor is at.
+   * @return The value.
+   */
+  T value();
+
+  /**
+   * Return the count of the value the cursor is at, which is always at least 1.
+   * @return The count.
+   */
+  int count();
+}
@@ -0,0 +1,154 @@
+package uk.ac.ucl.bag;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/*
+   A Spliterator returning every occurrence of every value held in a pair of parallel values and counts arrays,
+   in the same order as the all occurrences iterators.
+
+   The range covered runs from occurrence offset of the value at position first, up to and including the
+   first lastLimit occurrences of the value at position last. Splitting hands the first half of the positions
+   to a new spliterator. Once only one position is left its run of occurrences is split in half instead, so
+   a value with a very large count can still be shared between several threads. Every split is exact, so the
+   spliterator is SIZED and SUBSIZED. The size is worked out by adding up the counts in the range the first
+   time it is asked for, unless it is already known, as it is for a whole bag from totalOccurrences.
+
+   A count too large for an int is held at Integer.MAX_VALUE in the counts array, with the rest in an
+   OverflowCounts, as ArrayBag and HashBag store them. Given the OverflowCounts the spliterator returns every
+   occurrence of such a value, so it agrees with totalOccurrences.
+
+   The arrays are not copied, so the bag must not be changed while the spliterator is in use.
+ */
+class OccurrenceSpliterator<T> implements Spliterator<T>
+{
+  private final Object[] values;
+  private final int[] counts;
+  private final OverflowCounts<T> overflow;
+  private int first;
+  private long offset;
+  private final int last;
+  private final long lastLimit;
+  // The number of occurrences left in the range, or -1 if it has not been worked out yet.
+  private long remaining;
+
+  /*
+    Create a spliterator over the first size positions of the arrays.
+   */
+  OccurrenceSpliterator(Object[] values, int[] counts, int size)
+  {
+    this(values, counts, null, size, -1);
+  }
+
+  /*
+    Create a spliterator over the first size positions of the arrays, whose counts add up to total, or -1 if
+    not known. overflow holds the part of any count above Integer.MAX_VALUE, or is null if there is none.
+   */
+  OccurrenceSpliterator(Object[] values, int[] counts, OverflowCounts<T> overflow, int size, long total)
+  {
+    this(values, counts, overflow, 0, 0, size - 1,
+      size > 0 ? countAt(values, counts, overflow, size - 1) : 0, total);
+  }
+
+  private OccurrenceSpliterator(Object[] values, int[] counts, OverflowCounts<T> overflow, int first,
+                                long offset, int last, long lastLimit, long remaining)
+  {
+    this.values = values;
+    this.counts = counts;
+    this.overflow = overflow;
+    this.first = first;
+    this.offset = offset;
+    this.last = last;
+    this.lastLimit = lastLimit;
+    this.remaining = remaining;
+  }
+
+  private static <T> long countAt(Object[] values, int[] counts, OverflowCounts<T> overflow, int position)
+  {
+    return overflow != null ? overflow.count((T) values[position], counts[position]) : counts[position];
+  }
+
+  /*
+    The number of occurrences of the value at position that are in the range.
+   */
+  private long limit(int position)
+  {
+    return position == last ? lastLimit : countAt(values, counts, overflow, position);
+  }
+
+  public boolean tryAdvance(Consumer<? super T> action)
+  {
+    while (first <= last)
+    {
+      if (offset < limit(first))
+      {
+        offset++;
+        if (remaining > 0)
+        {
+          remaining--;
+        }
+        action.accept((T) values[first]);
+        return true;
+      }
+      first++;
+      offset = 0;
+    }
+    return false;
+  }
+
+  public void forEachRemaining(Consumer<? super T> action)
+  {
+    remaining = 0;
+    for ( ; first <= last ; first++, offset = 0)
+    {
+      T value = (T) values[first];
+      for (long n = limit(first) - offset ; n > 0 ; n--)
+      {
+        action.accept(value);
+      }
+    }
+  }
+
+  public Spliterator<T> trySplit()
+  {
+    if (first < last)
+    {
+      int middle = (first + last) >>> 1;
+      Spliterator<T> prefix = new OccurrenceSpliterator<>(values, counts, overflow, first, offset, middle,
+        countAt(values, counts, overflow, middle), -1);
+      first = middle + 1;
+      offset = 0;
+      remaining = -1;
+      return prefix;
+    }
+    if (first == last && lastLimit - offset >= 2)
+    {
+      long half = (lastLimit - offset) / 2;
+      Spliterator<T> prefix = new OccurrenceSpliterator<>(values, counts, overflow, first, offset, first,
+        offset + half, half);
+      offset += half;
+      remaining = lastLimit - offset;
+      return prefix;
+    }
+    return null;
+  }
+
+  public long estimateSize()
+  {
+    if (remaining < 0)
+    {
+      long sum = 0;
+      for (int position = first ; position <= last ; position++)
+      {
+        sum += limit(position);
+      }
+      remaining = first <= last ? sum - offset : 0;
+    }
+    return remaining;
+  }
+
+  public int characteristics()
+  {
+    return ORDERED | SIZED | SUBSIZED;
+  }
+}
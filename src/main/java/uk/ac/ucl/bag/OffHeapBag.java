@@ -0,0 +1,724 @@
+package uk.ac.ucl.bag;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.ObjIntConsumer;
+
+/*
+   This class implements Bags that keep their contents outside the Java heap, in direct ByteBuffers, so that a
+   bag with hundreds of millions of values adds almost nothing for the garbage collector to trace or copy. The
+   heap only holds a handful of buffer objects however large the bag grows, so the length of garbage collection
+   pauses does not depend on the size of the bag.
+
+   The layout follows HashBag. Each unique value has an entry at a position from 0 to size - 1, holding the
+   address of the value, its length and hash, and its count as a long. An open addressing index maps the hash
+   of a value to the position of its entry, with zero marking an empty slot, and collisions are resolved by
+   linear probing. When a value is removed entirely the last entry is moved into the gap.
+
+   The values themselves are stored in an arena, a list of buffers that encoded values are appended to, using a
+   ValueCodec. Two values are taken to be equal if their encodings are equal, which is true of the codecs in
+   ValueCodecs. A value is decoded back into an object only when it is returned, by an iterator or cursor. The
+   space taken by a removed value is not reused, so a bag with many removals should be copied into a new one
+   from time to time.
+
+   The entries and index are held in pages of at most a few megabytes, as a single ByteBuffer cannot be larger
+   than 2GB. Direct memory is limited separately from the heap, by the -XX:MaxDirectMemorySize option of the
+   java command, which defaults to the maximum heap size.
+
+   Direct buffers are normally freed when the garbage collector finds they are no longer used. Call close when
+   a bag is finished with to free its memory at once. After that every method of the bag except close,
+   including size and isEmpty, and every method of an iterator or cursor created from it, throws an
+   IllegalStateException. A bag must not be closed while another thread is using it.
+
+   As with HashBag, several threads may read a bag at once, but a change must not overlap with any other use.
+   Each thread encodes the values it looks up into its own buffer.
+ */
+public class OffHeapBag<T extends Comparable> extends AbstractBag<T> implements AutoCloseable
+{
+  private static final int MIN_CAPACITY = 8;
+
+  // The index has twice as many slots as there are entry positions, up to this limit.
+  private static final int MAX_INDEX_SIZE = 1 << 30;
+
+  // The layout of an entry.
+  private static final int ADDRESS = 0;
+  private static final int LENGTH = 8;
+  private static final int HASH = 12;
+  private static final int COUNT = 16;
+  private static final int ENTRY_SIZE = 24;
+
+  // Pages hold 2 to the power of these numbers of entries or index slots.
+  private static final int ENTRY_PAGE_SHIFT = 16;
+  private static final int INDEX_PAGE_SHIFT = 20;
+
+  private final ValueCodec<T> values;
+  private final int maxSize;
+  private int size;
+  private long total;
+  private Pages entries;
+  private Pages index;
+  private Arena arena = new Arena();
+  private boolean closed = false;
+
+  // The encoding of the value being looked up, reused from one operation to the next by each thread.
+  private static final ThreadLocal<ByteBuffer> KEY = ThreadLocal.withInitial(() -> ByteBuffer.allocate(64));
+
+  /*
+    Create an unbounded bag for Strings, Integers and Longs, which grows as values are added.
+   */
+  public OffHeapBag() throws BagException
+  {
+    this(DEFAULT_CAPACITY, UNBOUNDED);
+  }
+
+  /*
+    Create a bounded bag for Strings, Integers and Longs, which throws a BagException if a value is added
+    when it already holds maxSize unique values.
+   */
+  public OffHeapBag(int maxSize) throws BagException
+  {
+    this(Math.min(DEFAULT_CAPACITY, maxSize), maxSize);
+  }
+
+  /*
+    Create a bag for Strings, Integers and Longs with room for initialCapacity unique values before it needs
+    to grow. This is the constructor used by the BagFactory. Adding a value of any other class throws a
+    BagException.
+   */
+  public OffHeapBag(int initialCapacity, int maxSize) throws BagException
+  {
+    this((ValueCodec) ValueCodecs.BUILT_IN, initialCapacity, maxSize);
+  }
+
+  /*
+    Create a bag storing its values with the given codec, with room for initialCapacity unique values before
+    it needs to grow. Pass UNBOUNDED as maxSize for a bag with no size limit.
+   */
+  public OffHeapBag(ValueCodec<T> values, int initialCapacity, int maxSize) throws BagException
+  {
+    checkSizes(initialCapacity, maxSize);
+    this.values = values;
+    this.maxSize = maxSize;
+    int capacity = Math.max(MIN_CAPACITY, Math.min(initialCapacity, Math.min(maxSize, MAX_INDEX_SIZE - 1)));
+    entries = new Pages(ENTRY_SIZE, ENTRY_PAGE_SHIFT, capacity);
+    index = new Pages(Integer.BYTES, INDEX_PAGE_SHIFT, indexSizeFor(capacity));
+  }
+
+  /*
+    A growable array of fixed size elements held in direct ByteBuffers, each page holding 2 to the power
+    pageShift elements. Only the last page can be smaller than that, and it is the only one ever copied when
+    the array grows.
+   */
+  private static class Pages
+  {
+    private final int width;
+    private final int pageShift;
+    private final long pageMask;
+    private ByteBuffer[] pages = new ByteBuffer[0];
+    private long capacity = 0;
+
+    Pages(int width, int pageShift, long capacity)
+    {
+      this.width = width;
+      this.pageShift = pageShift;
+      this.pageMask = (1L << pageShift) - 1;
+      ensureCapacity(capacity);
+    }
+
+    void ensureCapacity(long needed)
+    {
+      long perPage = 1L << pageShift;
+      while (capacity < needed)
+      {
+        int last = pages.length - 1;
+        if (last >= 0 && pages[last].capacity() < perPage * width)
+        {
+          long start = (long) last << pageShift;
+          int elements = (int) Math.min(perPage, Math.max((capacity - start) * 2, needed - start));
+          ByteBuffer page = allocate(elements * width);
+          ByteBuffer old = pages[last].duplicate();
+          old.clear();
+          page.put(old);
+          page.clear();
+          freeBuffer(pages[last]);
+          pages[last] = page;
+          capacity = start + elements;
+        }
+        else
+        {
+          int elements = (int) Math.min(perPage, needed - capacity);
+          pages = Arrays.copyOf(pages, pages.length + 1);
+          pages[last + 1] = allocate(elements * width);
+          capacity += elements;
+        }
+      }
+    }
+
+    private static ByteBuffer allocate(int bytes)
+    {
+      return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    long capacity()
+    {
+      return capacity;
+    }
+
+    int getInt(long i, int field)
+    {
+      return pages[(int) (i >>> pageShift)].getInt((int) (i & pageMask) * width + field);
+    }
+
+    void putInt(long i, int field, int value)
+    {
+      pages[(int) (i >>> pageShift)].putInt((int) (i & pageMask) * width + field, value);
+    }
+
+    long getLong(long i, int field)
+    {
+      return pages[(int) (i >>> pageShift)].getLong((int) (i & pageMask) * width + field);
+    }
+
+    void putLong(long i, int field, long value)
+    {
+      pages[(int) (i >>> pageShift)].putLong((int) (i & pageMask) * width + field, value);
+    }
+
+    void free()
+    {
+      for (ByteBuffer page : pages)
+      {
+        freeBuffer(page);
+      }
+      pages = null;
+    }
+  }
+
+  /*
+    Holds encoded values back to back in direct buffers. Each buffer is twice the size of the one before, up to
+    MAX_PAGE, so a small bag takes little memory. A value never spans two buffers, and its address is the number
+    of its buffer in the upper 32 bits and its offset in the buffer in the lower 32.
+   */
+  private static class Arena
+  {
+    private static final int FIRST_PAGE = 1 << 12;
+    private static final int MAX_PAGE = 1 << 24;
+    private ByteBuffer[] pages = new ByteBuffer[0];
+    private int used = 0;
+
+    long append(byte[] bytes, int length)
+    {
+      int last = pages.length - 1;
+      if (last < 0 || pages[last].capacity() - used < length)
+      {
+        int pageSize = last < 0 ? FIRST_PAGE : Math.min(MAX_PAGE, pages[last].capacity() * 2);
+        pages = Arrays.copyOf(pages, pages.length + 1);
+        last++;
+        pages[last] = ByteBuffer.allocateDirect(Math.max(pageSize, length));
+        used = 0;
+      }
+      ByteBuffer page = pages[last].duplicate();
+      page.position(used);
+      page.put(bytes, 0, length);
+      long address = ((long) last << 32) | used;
+      used += length;
+      return address;
+    }
+
+    ByteBuffer page(long address)
+    {
+      return pages[(int) (address >>> 32)];
+    }
+
+    void free()
+    {
+      for (ByteBuffer page : pages)
+      {
+        freeBuffer(page);
+      }
+      pages = null;
+    }
+  }
+
+  /*
+    Direct buffers can be freed at once with sun.misc.Unsafe.invokeCleaner, which is available in the
+    jdk.unsupported module from Java 9 on. It is looked up once by reflection, and if it cannot be found the
+    buffers are left for the garbage collector to free.
+   */
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+
+  static
+  {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    try
+    {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = field.get(null);
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+    }
+    catch (ReflectiveOperationException | RuntimeException e)
+    {
+      unsafe = null;
+      invokeCleaner = null;
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  private static void freeBuffer(ByteBuffer buffer)
+  {
+    if (INVOKE_CLEANER != null)
+    {
+      try
+      {
+        INVOKE_CLEANER.invoke(UNSAFE, buffer);
+      }
+      catch (ReflectiveOperationException e)
+      {
+        // Leave the buffer for the garbage collector.
+      }
+    }
+  }
+
+  /*
+    Free the memory held by the bag. Closing a bag that is already closed does nothing.
+   */
+  public void close()
+  {
+    if (!closed)
+    {
+      closed = true;
+      entries.free();
+      index.free();
+      arena.free();
+      size = 0;
+      total = 0;
+    }
+  }
+
+  private void checkOpen()
+  {
+    if (closed)
+    {
+      throw new IllegalStateException("Bag is closed");
+    }
+  }
+
+  /*
+    Return the number of index slots to use for the given capacity: the smallest power of two that keeps
+    the index at most half full.
+   */
+  private static int indexSizeFor(long capacity)
+  {
+    if (capacity >= MAX_INDEX_SIZE / 2)
+    {
+      return MAX_INDEX_SIZE;
+    }
+    return Integer.highestOneBit((int) capacity * 2 - 1) << 1;
+  }
+
+  /*
+    Encode a value into this thread's key buffer, growing the buffer if the value does not fit. Return the
+    buffer, positioned after the encoding, or null if the codec cannot encode values of that class.
+   */
+  private ByteBuffer encode(T value)
+  {
+    ByteBuffer key = KEY.get();
+    while (true)
+    {
+      key.clear();
+      try
+      {
+        values.write(value, key);
+        return key;
+      }
+      catch (BufferOverflowException e)
+      {
+        key = ByteBuffer.allocate(key.capacity() * 2);
+        KEY.set(key);
+      }
+      catch (IllegalArgumentException | ClassCastException e)
+      {
+        return null;
+      }
+    }
+  }
+
+  /*
+    Hash a range of bytes. Each byte is mixed in with the FNV-1a step, and the result is finished with the
+    final mixing step of MurmurHash3, so that every bit of the bytes affects the low bits used by an index.
+    The simpler 31 * hash + b used by String.hashCode is not enough here: as a byte can be larger than 31,
+    short keys such as small numbers collide heavily. This is package-private so that BagIngest can hash
+    tokens the same way.
+   */
+  static int hashBytes(byte[] bytes, int offset, int length)
+  {
+    int hash = 0x811C9DC5;
+    for (int i = offset ; i < offset + length ; i++)
+    {
+      hash = (hash ^ (bytes[i] & 0xFF)) * 0x01000193;
+    }
+    hash ^= hash >>> 16;
+    hash *= 0x85EBCA6B;
+    hash ^= hash >>> 13;
+    hash *= 0xC2B2AE35;
+    return hash ^ (hash >>> 16);
+  }
+
+  private static int keyHash(ByteBuffer key)
+  {
+    return hashBytes(key.array(), 0, key.position());
+  }
+
+  private boolean keyEquals(ByteBuffer key, int position)
+  {
+    int length = key.position();
+    if (entries.getInt(position, LENGTH) != length)
+    {
+      return false;
+    }
+    long address = entries.getLong(position, ADDRESS);
+    ByteBuffer page = arena.page(address);
+    int offset = (int) address;
+    byte[] bytes = key.array();
+    for (int i = 0 ; i < length ; i++)
+    {
+      if (page.get(offset + i) != bytes[i])
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+    Return the position of the entry whose value is encoded in key, or -1 if there is none.
+   */
+  private int find(ByteBuffer key, int hash)
+  {
+    long mask = index.capacity() - 1;
+    for (long slot = hash & mask ; index.getInt(slot, 0) != 0 ; slot = (slot + 1) & mask)
+    {
+      int position = index.getInt(slot, 0) - 1;
+      if (entries.getInt(position, HASH) == hash && keyEquals(key, position))
+      {
+        return position;
+      }
+    }
+    return -1;
+  }
+
+  /*
+    Return the position of the entry for value, or -1 if the value is not in the bag.
+   */
+  private int locate(T value)
+  {
+    checkOpen();
+    ByteBuffer key = encode(value);
+    return key != null ? find(key, keyHash(key)) : -1;
+  }
+
+  private long slotOf(int position)
+  {
+    long mask = index.capacity() - 1;
+    long slot = entries.getInt(position, HASH) & mask;
+    while (index.getInt(slot, 0) != position + 1)
+    {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void insertIntoIndex(int position)
+  {
+    long mask = index.capacity() - 1;
+    long slot = entries.getInt(position, HASH) & mask;
+    while (index.getInt(slot, 0) != 0)
+    {
+      slot = (slot + 1) & mask;
+    }
+    index.putInt(slot, 0, position + 1);
+  }
+
+  /*
+    Empty an index slot, moving back any following entries in the same probe run, as HashBag does.
+   */
+  private void deleteFromIndex(long slot)
+  {
+    long mask = index.capacity() - 1;
+    long gap = slot;
+    long next = (gap + 1) & mask;
+    while (index.getInt(next, 0) != 0)
+    {
+      long home = entries.getInt(index.getInt(next, 0) - 1, HASH) & mask;
+      if (((next - home) & mask) >= ((next - gap) & mask))
+      {
+        index.putInt(gap, 0, index.getInt(next, 0));
+        gap = next;
+      }
+      next = (next + 1) & mask;
+    }
+    index.putInt(gap, 0, 0);
+  }
+
+  private void grow() throws BagException
+  {
+    if (entries.capacity() >= MAX_INDEX_SIZE - 1)
+    {
+      throw new BagException("Bag is full");
+    }
+    long capacity = Math.min(entries.capacity() * 2, MAX_INDEX_SIZE - 1);
+    entries.ensureCapacity(capacity);
+    if (indexSizeFor(capacity) > index.capacity())
+    {
+      // Iterators and cursors only read the entries, so the old index can be freed at once.
+      index.free();
+      index = new Pages(Integer.BYTES, INDEX_PAGE_SHIFT, indexSizeFor(capacity));
+      for (int i = 0 ; i < size ; i++)
+      {
+        insertIntoIndex(i);
+      }
+    }
+  }
+
+  /*
+    Add a new entry for the value encoded in key.
+   */
+  private void append(ByteBuffer key, int hash, long occurrences) throws BagException
+  {
+    if (size >= maxSize)
+    {
+      throw new BagException("Bag is full");
+    }
+    if (size == entries.capacity())
+    {
+      grow();
+    }
+    entries.putLong(size, ADDRESS, arena.append(key.array(), key.position()));
+    entries.putInt(size, LENGTH, key.position());
+    entries.putInt(size, HASH, hash);
+    entries.putLong(size, COUNT, occurrences);
+    insertIntoIndex(size);
+    size++;
+  }
+
+  /*
+    Decode the value of the entry at position.
+   */
+  private T valueAt(int position)
+  {
+    long address = entries.getLong(position, ADDRESS);
+    ByteBuffer buffer = arena.page(address).duplicate();
+    buffer.position((int) address);
+    return values.read(buffer);
+  }
+
+  public void add(T value) throws BagException
+  {
+    addWithOccurrences(value, 1L);
+  }
+
+  public void addWithOccurrences(T value, int occurrences) throws BagException
+  {
+    checkOccurrences(occurrences);
+    addWithOccurrences(value, (long) occurrences);
+  }
+
+  public void addWithOccurrences(T value, long occurrences) throws BagException
+  {
+    checkOccurrences(occurrences);
+    checkOpen();
+    if (occurrences == 0)
+    {
+      return;
+    }
+    ByteBuffer key = encode(value);
+    if (key == null)
+    {
+      throw new BagException("Cannot store a value of " + value.getClass().getName() + " in an OffHeapBag");
+    }
+    int hash = keyHash(key);
+    int position = find(key, hash);
+    if (position >= 0)
+    {
+      entries.putLong(position, COUNT, addToCount(entries.getLong(position, COUNT), occurrences));
+    }
+    else
+    {
+      append(key, hash, occurrences);
+    }
+    total += occurrences;
+  }
+
+  public boolean contains(T value)
+  {
+    return locate(value) >= 0;
+  }
+
+  public int countOf(T value)
+  {
+    return saturatedCount(countOfLong(value));
+  }
+
+  public long countOfLong(T value)
+  {
+    int position = locate(value);
+    return position >= 0 ? entries.getLong(position, COUNT) : 0;
+  }
+
+  public int removeOccurrences(T value, int n)
+  {
+    checkRemoveOccurrences(n);
+    int position = locate(value);
+    if (position < 0 || n == 0)
+    {
+      return 0;
+    }
+    long count = entries.getLong(position, COUNT);
+    if (count > n)
+    {
+      entries.putLong(position, COUNT, count - n);
+      total -= n;
+      return n;
+    }
+    total -= count;
+    deleteFromIndex(slotOf(position));
+    int last = size - 1;
+    if (position != last)
+    {
+      // Move the last entry into the gap and repoint its index slot.
+      index.putInt(slotOf(last), 0, position + 1);
+      entries.putLong(position, ADDRESS, entries.getLong(last, ADDRESS));
+      entries.putInt(position, LENGTH, entries.getInt(last, LENGTH));
+      entries.putInt(position, HASH, entries.getInt(last, HASH));
+      entries.putLong(position, COUNT, entries.getLong(last, COUNT));
+    }
+    size--;
+    return (int) count;
+  }
+
+  public boolean isEmpty()
+  {
+    checkOpen();
+    return size == 0;
+  }
+
+  public int size()
+  {
+    checkOpen();
+    return size;
+  }
+
+  public long totalOccurrences()
+  {
+    checkOpen();
+    return total;
+  }
+
+  /*
+    Walks the entries in position order, decoding each value as it is reached.
+   */
+  private class OffHeapCursor implements OccurrenceCursor<T>
+  {
+    private int position = -1;
+    private T value;
+    private long count;
+
+    public boolean advance()
+    {
+      checkOpen();
+      if (position + 1 < size)
+      {
+        position++;
+        value = valueAt(position);
+        count = entries.getLong(position, COUNT);
+        return true;
+      }
+      position = size;
+      return false;
+    }
+
+    public T value()
+    {
+      return value;
+    }
+
+    public int count()
+    {
+      return saturatedCount(count);
+    }
+  }
+
+  public OccurrenceCursor<T> occurrenceCursor()
+  {
+    checkOpen();
+    return new OffHeapCursor();
+  }
+
+  public void forEachEntry(ObjIntConsumer<? super T> action)
+  {
+    OffHeapCursor cursor = new OffHeapCursor();
+    while (cursor.advance())
+    {
+      action.accept(cursor.value, cursor.count());
+    }
+  }
+
+  /*
+    Iterates through each unique value, or every occurrence of every value, using a cursor. The remaining
+    count of the current value is held in a field, so the entries are only read when moving to the next value.
+   */
+  private class OffHeapBagIterator implements Iterator<T>
+  {
+    private final OffHeapCursor cursor = new OffHeapCursor();
+    private final boolean allOccurrences;
+    private long remaining = 0;
+
+    OffHeapBagIterator(boolean allOccurrences)
+    {
+      this.allOccurrences = allOccurrences;
+    }
+
+    public boolean hasNext()
+    {
+      checkOpen();
+      return remaining > 0 || cursor.position + 1 < size;
+    }
+
+    public T next()
+    {
+      if (remaining == 0)
+      {
+        if (!cursor.advance())
+        {
+          throw new NoSuchElementException();
+        }
+        remaining = allOccurrences ? cursor.count : 1;
+      }
+      remaining--;
+      return cursor.value;
+    }
+  }
+
+  public Iterator<T> iterator()
+  {
+    checkOpen();
+    return new OffHeapBagIterator(false);
+  }
+
+  public Iterator<T> allOccurrencesIterator()
+  {
+    checkOpen();
+    return new OffHeapBagIterator(true);
+  }
+}
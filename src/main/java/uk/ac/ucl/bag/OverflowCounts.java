@@ -0,0 +1,50 @@
+package uk.ac.ucl.bag;
+
+import java.util.Map;
+
+/*
+   Holds the part of each count above Integer.MAX_VALUE, for bags that store their counts in an int array.
+   The entry in the int array for such a value is left at Integer.MAX_VALUE, so the methods that only deal in
+   int counts see the count saturated and are unchanged, and only the methods that deal in long counts need to
+   look here, and then only for a value whose int count is Integer.MAX_VALUE. A bag creates one of these the
+   first time a count overflows, so bags whose counts all fit in an int pay nothing for it.
+ */
+class OverflowCounts<T>
+{
+  private final Map<T, Long> excess;
+
+  /*
+    Create an empty store using the given map, which must match values the same way as the bag does.
+   */
+  OverflowCounts(Map<T, Long> excess)
+  {
+    this.excess = excess;
+  }
+
+  /*
+    Return the full count of a value whose int count is intCount.
+   */
+  long count(T value, int intCount)
+  {
+    if (intCount < Integer.MAX_VALUE)
+    {
+      return intCount;
+    }
+    Long extra = excess.get(value);
+    return extra != null ? Integer.MAX_VALUE + extra : Integer.MAX_VALUE;
+  }
+
+  /*
+    Record the full count of a value and return what its int count should be set to.
+   */
+  int setCount(T value, long count)
+  {
+    if (count > Integer.MAX_VALUE)
+    {
+      excess.put(value, count - Integer.MAX_VALUE);
+      return Integer.MAX_VALUE;
+    }
+    excess.remove(value);
+    return (int) count;
+  }
+}
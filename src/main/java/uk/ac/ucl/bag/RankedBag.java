@@ -0,0 +1,403 @@
+package uk.ac.ucl.bag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.ObjIntConsumer;
+
+/*
+   This class implements Bags that keep their values in order of count, highest first, so that the most
+   frequent values can be read off the front at any time. topK(k) just copies the first k entries, taking O(k)
+   time however large the bag is, and both iterators return the values from the highest count down.
+
+   Each value has an Entry object holding its count and its position in the ranked array, and a HashMap finds
+   the Entry for a value. The ranked array is kept sorted by count in descending order, so the values with the
+   same count form a block. When a count goes up the entry must move towards the front, past every entry with
+   a lower count. Rather than shifting them all along, the entry is swapped with the first entry of the block
+   in front of it, found by binary search, and this is repeated for each block it passes. The order within a
+   block does not matter, so each swap keeps the array sorted. Adding one occurrence, the common case, moves an
+   entry past at most one block, so it costs one binary search and one swap. A count going down moves the entry
+   towards the back in the same way, and a value whose count reaches zero ends up at the back, where it is
+   removed.
+
+   As with HashBag, values must have a hashCode and equals consistent with compareTo.
+ */
+public class RankedBag<T extends Comparable> extends AbstractBag<T>
+{
+  /*
+    The count of a value and the position of its entry in the ranked array, kept up to date as entries move.
+   */
+  private static class Entry<T>
+  {
+    public final T value;
+    public long count;
+    public int position;
+
+    public Entry(T value, long count, int position)
+    {
+      this.value = value;
+      this.count = count;
+      this.position = position;
+    }
+  }
+
+  private int maxSize;
+  private int size;
+  private Entry<T>[] ranked;
+  private HashMap<T, Entry<T>> entries;
+  // The sum of the counts, kept up to date by every method that changes a count.
+  private long total;
+
+  /*
+    Create an unbounded bag, which grows as values are added.
+   */
+  public RankedBag() throws BagException
+  {
+    this(DEFAULT_CAPACITY, UNBOUNDED);
+  }
+
+  /*
+    Create a bounded bag, which throws a BagException if a value is added when it already
+    holds maxSize unique values.
+   */
+  public RankedBag(int maxSize) throws BagException
+  {
+    this(Math.min(DEFAULT_CAPACITY, maxSize), maxSize);
+  }
+
+  /*
+    Create a bag with room for initialCapacity unique values before it needs to grow. Pass UNBOUNDED
+    as maxSize for a bag with no size limit.
+   */
+  public RankedBag(int initialCapacity, int maxSize) throws BagException
+  {
+    checkSizes(initialCapacity, maxSize);
+    int capacity = Math.min(initialCapacity, maxSize);
+    this.maxSize = maxSize;
+    this.size = 0;
+    this.ranked = (Entry<T>[]) new Entry[capacity];
+    this.entries = new HashMap<>((int) Math.min(capacity * 4L / 3 + 1, Integer.MAX_VALUE));
+  }
+
+  /*
+    Make room for more values by growing the ranked array by half, but never beyond maxSize.
+   */
+  private void grow() throws BagException
+  {
+    long capacity = Math.min((long) ranked.length + (ranked.length >> 1) + 1, Math.min(maxSize, Integer.MAX_VALUE - 8));
+    if (capacity <= ranked.length)
+    {
+      throw new BagException("Bag is full");
+    }
+    ranked = Arrays.copyOf(ranked, (int) capacity);
+  }
+
+  private void swap(int i, int j)
+  {
+    Entry<T> entry = ranked[i];
+    ranked[i] = ranked[j];
+    ranked[j] = entry;
+    ranked[i].position = i;
+    ranked[j].position = j;
+  }
+
+  /*
+    Return the position of the first entry in positions 0 to end with the given count, which the entry at
+    end has. The counts are in descending order, so a binary search can be used.
+   */
+  private int firstWithCount(long count, int end)
+  {
+    int low = 0;
+    int high = end;
+    while (low < high)
+    {
+      int middle = (low + high) >>> 1;
+      if (ranked[middle].count > count)
+      {
+        low = middle + 1;
+      }
+      else
+      {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /*
+    Return the position of the last entry in positions start to size - 1 with the given count, which the entry
+    at start has.
+   */
+  private int lastWithCount(long count, int start)
+  {
+    int low = start;
+    int high = size - 1;
+    while (low < high)
+    {
+      int middle = (low + high + 1) >>> 1;
+      if (ranked[middle].count < count)
+      {
+        high = middle - 1;
+      }
+      else
+      {
+        low = middle;
+      }
+    }
+    return low;
+  }
+
+  /*
+    Move an entry whose count has gone up towards the front, one block of equal counts at a time.
+   */
+  private void moveUp(Entry<T> entry)
+  {
+    while (entry.position > 0 && ranked[entry.position - 1].count < entry.count)
+    {
+      int before = entry.position - 1;
+      swap(entry.position, firstWithCount(ranked[before].count, before));
+    }
+  }
+
+  /*
+    Move an entry whose count has gone down towards the back, one block of equal counts at a time.
+   */
+  private void moveDown(Entry<T> entry)
+  {
+    while (entry.position < size - 1 && ranked[entry.position + 1].count > entry.count)
+    {
+      int after = entry.position + 1;
+      swap(entry.position, lastWithCount(ranked[after].count, after));
+    }
+  }
+
+  public void add(T value) throws BagException
+  {
+    addWithOccurrences(value, 1L);
+  }
+
+  public void addWithOccurrences(T value, int occurrences) throws BagException
+  {
+    addWithOccurrences(value, (long) occurrences);
+  }
+
+  public void addWithOccurrences(T value, long occurrences) throws BagException
+  {
+    checkOccurrences(occurrences);
+    if (occurrences == 0)
+    {
+      return;
+    }
+    Entry<T> entry = entries.get(value);
+    if (entry == null)
+    {
+      insert(value, occurrences);
+      return;
+    }
+    entry.count = addToCount(entry.count, occurrences);
+    total += occurrences;
+    moveUp(entry);
+  }
+
+  protected void addNew(T value, int occurrences) throws BagException
+  {
+    insert(value, occurrences);
+  }
+
+  /*
+    Add a new value at the back of the ranked array and move it up to its place.
+   */
+  private void insert(T value, long occurrences) throws BagException
+  {
+    if (size >= maxSize)
+    {
+      throw new BagException("Bag is full");
+    }
+    if (size == ranked.length)
+    {
+      grow();
+    }
+    Entry<T> entry = new Entry<>(value, occurrences, size);
+    ranked[size] = entry;
+    entries.put(value, entry);
+    size++;
+    total += occurrences;
+    moveUp(entry);
+  }
+
+  public boolean contains(T value)
+  {
+    return entries.containsKey(value);
+  }
+
+  public int countOf(T value)
+  {
+    return saturatedCount(countOfLong(value));
+  }
+
+  public long countOfLong(T value)
+  {
+    Entry<T> entry = entries.get(value);
+    return entry != null ? entry.count : 0;
+  }
+
+  public int removeOccurrences(T value, int n)
+  {
+    checkRemoveOccurrences(n);
+    Entry<T> entry = entries.get(value);
+    if (entry == null || n == 0)
+    {
+      return 0;
+    }
+    int removed = (int) Math.min(entry.count, n);
+    entry.count -= removed;
+    total -= removed;
+    moveDown(entry);
+    if (entry.count == 0)
+    {
+      // Every other count is at least 1, so the entry has moved to the back.
+      entries.remove(value);
+      size--;
+      ranked[size] = null;
+    }
+    return removed;
+  }
+
+  public boolean isEmpty()
+  {
+    return size == 0;
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  public long totalOccurrences()
+  {
+    return total;
+  }
+
+  /*
+    The first k entries of the ranked array are the k values with the highest counts.
+   */
+  public List<BagEntry<T>> topK(int k)
+  {
+    checkTopK(k);
+    int n = Math.min(k, size);
+    List<BagEntry<T>> top = new ArrayList<>(n);
+    for (int i = 0 ; i < n ; i++)
+    {
+      top.add(new BagEntry<>(ranked[i].value, saturatedCount(ranked[i].count)));
+    }
+    return top;
+  }
+
+  public void forEachEntry(ObjIntConsumer<? super T> action)
+  {
+    for (int i = 0 ; i < size ; i++)
+    {
+      action.accept(ranked[i].value, saturatedCount(ranked[i].count));
+    }
+  }
+
+  /*
+    Iterates through the unique values from the highest count down.
+   */
+  private class RankedBagUniqueIterator implements Iterator<T>
+  {
+    private int position = 0;
+
+    public boolean hasNext()
+    {
+      return position < size;
+    }
+
+    public T next()
+    {
+      if (position >= size)
+      {
+        throw new NoSuchElementException();
+      }
+      return ranked[position++].value;
+    }
+  }
+
+  public Iterator<T> iterator()
+  {
+    return new RankedBagUniqueIterator();
+  }
+
+  /*
+    Iterates through every occurrence of every value, from the highest count down.
+   */
+  private class RankedBagIterator implements Iterator<T>
+  {
+    private int position = 0;
+    private T value;
+    private long remaining = 0;
+
+    public boolean hasNext()
+    {
+      return remaining > 0 || position < size;
+    }
+
+    public T next()
+    {
+      if (remaining == 0)
+      {
+        if (position >= size)
+        {
+          throw new NoSuchElementException();
+        }
+        value = ranked[position].value;
+        remaining = ranked[position].count;
+        position++;
+      }
+      remaining--;
+      return value;
+    }
+  }
+
+  public Iterator<T> allOccurrencesIterator()
+  {
+    return new RankedBagIterator();
+  }
+
+  /*
+    Walks the ranked array from the highest count down.
+   */
+  private class RankedBagCursor implements OccurrenceCursor<T>
+  {
+    private int position = -1;
+
+    public boolean advance()
+    {
+      if (position + 1 < size)
+      {
+        position++;
+        return true;
+      }
+      position = size;
+      return false;
+    }
+
+    public T value()
+    {
+      return ranked[position].value;
+    }
+
+    public int count()
+    {
+      return saturatedCount(ranked[position].count);
+    }
+  }
+
+  public OccurrenceCursor<T> occurrenceCursor()
+  {
+    return new RankedBagCursor();
+  }
+}
@@ -0,0 +1,16 @@
+package uk.ac.ucl.bag;
+
+/**
+ * A SortedBag is a Bag whose iterators return values in ascending order, as defined by the compareTo method
+ * of the values. The unique value iterator returns each value once, in strictly ascending order, and the
+ * all occurrences iterator returns the copies of each value next to each other.
+ *
+ * The interface adds no methods. It lets code that combines bags, such as the merge methods in AbstractBag,
+ * recognise that the ordering can be relied on and walk two bags side by side instead of looking up each
+ * value.
+ *
+ * @param <T> The type of the values stored in the Bag.
+ */
+public interface SortedBag<T extends Comparable> extends Bag<T>
+{
+}
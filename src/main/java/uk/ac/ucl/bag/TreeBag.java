@@ -0,0 +1,253 @@
+package uk.ac.ucl.bag;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.function.ObjIntConsumer;
+
+/*
+   This class implements Bags using a TreeMap, a red-black (balanced binary search) tree from the standard
+   Java Class Library, as the internal data structure. The tree is ordered using the compareTo method of
+   the values, so add, contains, countOf and remove take O(log n) time and both iterators return the
+   values in ascending order. This makes a TreeBag the right choice when the contents of a bag need to be
+   reported in sorted order, as no separate sort is needed, and TreeBag is a SortedBag so merging two
+   TreeBags is done in a single pass over each.
+ */
+public class TreeBag<T extends Comparable> extends AbstractBag<T> implements SortedBag<T>
+{
+  /*
+     Holds the occurrence count of a value. The value itself is the key in the tree, so it is not stored
+     again here. The count is mutable so it can be updated in place without replacing the tree entry.
+     It is a long, which costs nothing extra as the object is padded to a multiple of eight bytes anyway.
+   */
+  private static class Counter
+  {
+    public long count;
+    public Counter(long count)
+    {
+      this.count = count;
+    }
+  }
+
+  private int maxSize;
+  private TreeMap<T, Counter> contents;
+  // The sum of the counts, kept up to date by every method that changes a count.
+  private long total;
+
+  /*
+    Create an unbounded bag, which grows as values are added.
+   */
+  public TreeBag() throws BagException
+  {
+    this(DEFAULT_CAPACITY, UNBOUNDED);
+  }
+
+  /*
+    Create a bounded bag, which throws a BagException if a value is added when it already
+    holds maxSize unique values.
+   */
+  public TreeBag(int maxSize) throws BagException
+  {
+    this(Math.min(DEFAULT_CAPACITY, maxSize), maxSize);
+  }
+
+  /*
+    Create a bag with the given maximum size. A tree grows one node at a time and cannot be presized, so
+    initialCapacity is checked but otherwise ignored; it is accepted so that all the bag classes can be
+    created the same way. Pass UNBOUNDED as maxSize for a bag with no size limit.
+   */
+  public TreeBag(int initialCapacity, int maxSize) throws BagException
+  {
+    checkSizes(initialCapacity, maxSize);
+    this.maxSize = maxSize;
+    this.contents = new TreeMap<>();
+  }
+
+  public void add(T value) throws BagException
+  {
+    addWithOccurrences(value, 1);
+  }
+
+  public void addWithOccurrences(T value, int occurrences) throws BagException
+  {
+    addWithOccurrences(value, (long) occurrences);
+  }
+
+  public void addWithOccurrences(T value, long occurrences) throws BagException
+  {
+    checkOccurrences(occurrences);
+    if (occurrences == 0)
+    {
+      return;
+    }
+    Counter counter = contents.get(value);
+    if (counter != null)
+    {
+      counter.count = addToCount(counter.count, occurrences);
+      total += occurrences;
+      return;
+    }
+    insert(value, occurrences);
+  }
+
+  protected void addNew(T value, int occurrences) throws BagException
+  {
+    insert(value, occurrences);
+  }
+
+  private void insert(T value, long occurrences) throws BagException
+  {
+    if (contents.size() >= maxSize)
+    {
+      throw new BagException("Bag is full");
+    }
+    contents.put(value, new Counter(occurrences));
+    total += occurrences;
+  }
+
+  public boolean contains(T value)
+  {
+    return contents.containsKey(value);
+  }
+
+  public int countOf(T value)
+  {
+    Counter counter = contents.get(value);
+    return counter != null ? saturatedCount(counter.count) : 0;
+  }
+
+  public long countOfLong(T value)
+  {
+    Counter counter = contents.get(value);
+    return counter != null ? counter.count : 0;
+  }
+
+  public int removeOccurrences(T value, int n)
+  {
+    checkRemoveOccurrences(n);
+    Counter counter = contents.get(value);
+    if (counter == null || n == 0)
+    {
+      return 0;
+    }
+    if (counter.count > n)
+    {
+      counter.count -= n;
+      total -= n;
+      return n;
+    }
+    contents.remove(value);
+    total -= counter.count;
+    return (int) counter.count;
+  }
+
+  public boolean isEmpty()
+  {
+    return contents.isEmpty();
+  }
+
+  public int size()
+  {
+    return contents.size();
+  }
+
+  public long totalOccurrences()
+  {
+    return total;
+  }
+
+  public void forEachEntry(ObjIntConsumer<? super T> action)
+  {
+    for (Map.Entry<T, Counter> entry : contents.entrySet())
+    {
+      action.accept(entry.getKey(), saturatedCount(entry.getValue().count));
+    }
+  }
+
+  /*
+    The unique values are the keys of the tree, which the TreeMap already iterates in ascending order.
+    The key set is wrapped so the iterator cannot be used to remove values behind the bag's back.
+   */
+  public Iterator<T> iterator()
+  {
+    return Collections.unmodifiableSet(contents.keySet()).iterator();
+  }
+
+  /*
+    Iterates through every occurrence of every value in ascending order, walking the tree entries once
+    and repeating each value according to its count.
+   */
+  private class TreeBagIterator implements Iterator<T>
+  {
+    private Iterator<Map.Entry<T, Counter>> entries = contents.entrySet().iterator();
+    private T value;
+    private long remaining = 0;
+
+    public boolean hasNext()
+    {
+      return remaining > 0 || entries.hasNext();
+    }
+
+    public T next()
+    {
+      if (remaining == 0)
+      {
+        if (!entries.hasNext())
+        {
+          throw new NoSuchElementException();
+        }
+        Map.Entry<T, Counter> entry = entries.next();
+        value = entry.getKey();
+        remaining = entry.getValue().count;
+      }
+      remaining--;
+      return value;
+    }
+  }
+
+  public Iterator<T> allOccurrencesIterator()
+  {
+    return new TreeBagIterator();
+  }
+
+  /*
+    Walks the tree entries in ascending order, reading each count directly from its Counter.
+   */
+  private class TreeBagCursor implements OccurrenceCursor<T>
+  {
+    private final Iterator<Map.Entry<T, Counter>> entries = contents.entrySet().iterator();
+    private Map.Entry<T, Counter> entry;
+
+    public boolean advance()
+    {
+      entry = entries.hasNext() ? entries.next() : null;
+      return entry != null;
+    }
+
+    public T value()
+    {
+      return entry.getKey();
+    }
+
+    public int count()
+    {
+      return saturatedCount(entry.getValue().count);
+    }
+  }
+
+  public OccurrenceCursor<T> occurrenceCursor()
+  {
+    return new TreeBagCursor();
+  }
+
+  /*
+    The key set's own Spliterator splits the tree and reports the values as SORTED.
+   */
+  public Spliterator<T> spliterator()
+  {
+    return contents.keySet().spliterator();
+  }
+}
@@ -0,0 +1,51 @@
+package uk.ac.ucl.bag;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts the values held in a bag to and from bytes, so that BagCodec can write a bag to a file or buffer
+ * and read it back. ValueCodecs holds codecs for the common value types; a codec for any other type can be
+ * written by implementing this interface.
+ *
+ * Each value must be written so that read can tell where it ends, for example with a fixed width or a
+ * length prefix, as the values are written one after another with no separators.
+ *
+ * @param <T> The type of the values.
+ */
+public interface ValueCodec<T extends Comparable>
+{
+  /**
+   * Write a value to a stream.
+   * @param value The value.
+   * @param out The stream.
+   * @throws IOException If the stream cannot be written.
+   */
+  void write(T value, DataOutput out) throws IOException;
+
+  /**
+   * Read a value from a stream.
+   * @param in The stream.
+   * @return The value.
+   * @throws IOException If the stream cannot be read or does not hold a value.
+   */
+  T read(DataInput in) throws IOException;
+
+  /**
+   * Write a value into a buffer at its position, advancing the position past it.
+   * @param value The value.
+   * @param buffer The buffer.
+   * @throws java.nio.BufferOverflowException If the buffer does not have room for the value.
+   */
+  void write(T value, ByteBuffer buffer);
+
+  /**
+   * Read a value from a buffer at its position, advancing the position past it.
+   * @param buffer The buffer.
+   * @return The value.
+   * @throws java.nio.BufferUnderflowException If the buffer ends part way through the value.
+   */
+  T read(ByteBuffer buffer);
+}
@@ -0,0 +1,219 @@
+package uk.ac.ucl.bag;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Codecs for the common value types, for use with BagCodec. The class cannot be instantiated.
+ */
+public final class ValueCodecs
+{
+  private ValueCodecs()
+  {
+  }
+
+  /**
+   * Writes strings as a variable length byte count followed by the UTF-8 bytes of the string. Unlike
+   * DataOutput.writeUTF this has no limit on the length of a string, and a short string costs a single byte
+   * more than its characters.
+   */
+  public static final ValueCodec<String> UTF8 = new ValueCodec<String>()
+  {
+    // The most bytes of a string read from a stream before checking that the stream really holds that many.
+    private static final int CHUNK = 1 << 16;
+
+    public void write(String value, DataOutput out) throws IOException
+    {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      BagCodec.writeVarLong(bytes.length, out);
+      out.write(bytes);
+    }
+
+    public String read(DataInput in) throws IOException
+    {
+      long length = BagCodec.readVarLong(in);
+      if (length < 0 || length > Integer.MAX_VALUE - 8)
+      {
+        throw new IOException("String too long: " + length + " bytes");
+      }
+      // The array grows as the bytes arrive, so a corrupt length runs out of input rather than memory.
+      byte[] bytes = new byte[(int) Math.min(length, CHUNK)];
+      int read = 0;
+      while (true)
+      {
+        in.readFully(bytes, read, bytes.length - read);
+        read = bytes.length;
+        if (read == length)
+        {
+          return new String(bytes, StandardCharsets.UTF_8);
+        }
+        bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * read));
+      }
+    }
+
+    public void write(String value, ByteBuffer buffer)
+    {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      BagCodec.writeVarLong(bytes.length, buffer);
+      buffer.put(bytes);
+    }
+
+    public String read(ByteBuffer buffer)
+    {
+      long length = BagCodec.readVarLong(buffer);
+      if (length < 0 || length > buffer.remaining())
+      {
+        throw new BufferUnderflowException();
+      }
+      String value;
+      if (buffer.hasArray())
+      {
+        value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), (int) length,
+          StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + (int) length);
+      }
+      else
+      {
+        byte[] bytes = new byte[(int) length];
+        buffer.get(bytes);
+        value = new String(bytes, StandardCharsets.UTF_8);
+      }
+      return value;
+    }
+  };
+
+  /**
+   * Writes Integers as four bytes, most significant first.
+   */
+  public static final ValueCodec<Integer> FIXED_INT = new ValueCodec<Integer>()
+  {
+    public void write(Integer value, DataOutput out) throws IOException
+    {
+      out.writeInt(value);
+    }
+
+    public Integer read(DataInput in) throws IOException
+    {
+      return in.readInt();
+    }
+
+    public void write(Integer value, ByteBuffer buffer)
+    {
+      buffer.putInt(value);
+    }
+
+    public Integer read(ByteBuffer buffer)
+    {
+      return buffer.getInt();
+    }
+  };
+
+  /**
+   * Writes Longs as eight bytes, most significant first.
+   */
+  public static final ValueCodec<Long> FIXED_LONG = new ValueCodec<Long>()
+  {
+    public void write(Long value, DataOutput out) throws IOException
+    {
+      out.writeLong(value);
+    }
+
+    public Long read(DataInput in) throws IOException
+    {
+      return in.readLong();
+    }
+
+    public void write(Long value, ByteBuffer buffer)
+    {
+      buffer.putLong(value);
+    }
+
+    public Long read(ByteBuffer buffer)
+    {
+      return buffer.getLong();
+    }
+  };
+
+  private static final byte STRING_TAG = 0;
+  private static final byte INT_TAG = 1;
+  private static final byte LONG_TAG = 2;
+
+  /**
+   * Writes values that may be Strings, Integers or Longs, each preceded by a byte saying which, using the
+   * codecs above. This is for bags whose value type is not known when the codec is chosen, such as an
+   * OffHeapBag created by the BagFactory. Writing a value of any other class throws an
+   * IllegalArgumentException.
+   */
+  public static final ValueCodec<Comparable> BUILT_IN = new ValueCodec<Comparable>()
+  {
+    private byte tagOf(Comparable value)
+    {
+      if (value instanceof String)
+      {
+        return STRING_TAG;
+      }
+      if (value instanceof Integer)
+      {
+        return INT_TAG;
+      }
+      if (value instanceof Long)
+      {
+        return LONG_TAG;
+      }
+      throw new IllegalArgumentException("No built-in codec for " + value.getClass().getName());
+    }
+
+    public void write(Comparable value, DataOutput out) throws IOException
+    {
+      byte tag = tagOf(value);
+      out.writeByte(tag);
+      switch (tag)
+      {
+        case STRING_TAG: UTF8.write((String) value, out); break;
+        case INT_TAG: FIXED_INT.write((Integer) value, out); break;
+        default: FIXED_LONG.write((Long) value, out);
+      }
+    }
+
+    public Comparable read(DataInput in) throws IOException
+    {
+      byte tag = in.readByte();
+      switch (tag)
+      {
+        case STRING_TAG: return UTF8.read(in);
+        case INT_TAG: return FIXED_INT.read(in);
+        case LONG_TAG: return FIXED_LONG.read(in);
+        default: throw new IOException("Unknown value tag: " + tag);
+      }
+    }
+
+    public void write(Comparable value, ByteBuffer buffer)
+    {
+      byte tag = tagOf(value);
+      buffer.put(tag);
+      switch (tag)
+      {
+        case STRING_TAG: UTF8.write((String) value, buffer); break;
+        case INT_TAG: FIXED_INT.write((Integer) value, buffer); break;
+        default: FIXED_LONG.write((Long) value, buffer);
+      }
+    }
+
+    public Comparable read(ByteBuffer buffer)
+    {
+      byte tag = buffer.get();
+      switch (tag)
+      {
+        case STRING_TAG: return UTF8.read(buffer);
+        case INT_TAG: return FIXED_INT.read(buffer);
+        case LONG_TAG: return FIXED_LONG.read(buffer);
+        default: throw new IllegalArgumentException("Unknown value tag: " + tag);
+      }
+    }
+  };
+}
@@ -0,0 +1,72 @@
+package uk.ac.ucl.bag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Checks that an AdaptiveBag keeps its contents as it moves between representations.
+ */
+public class AdaptiveBagTest
+{
+  @Test
+  public void contentsSurviveGrowingAndShrinking() throws BagException
+  {
+    AdaptiveBag<Integer> bag = new AdaptiveBag<>(Bag.DEFAULT_CAPACITY, Bag.UNBOUNDED, true);
+    for (int round = 0 ; round < 3 ; round++)
+    {
+      for (int i = 0 ; i < 100 ; i++)
+      {
+        bag.addWithOccurrences(i, i + 1);
+      }
+      assertEquals(100, bag.size());
+      assertEquals(50, bag.countOf(49));
+      for (int i = 0 ; i < 98 ; i++)
+      {
+        bag.removeAll(i);
+      }
+      assertEquals(2, bag.size());
+      assertFalse(bag.contains(0));
+      assertEquals(99, bag.countOf(98));
+      assertEquals(100, bag.countOf(99));
+      bag.removeAll(98);
+      bag.removeAll(99);
+    }
+  }
+
+  @Test
+  public void boundedBagStaysBoundedAfterUpgrade() throws BagException
+  {
+    AdaptiveBag<Integer> bag = new AdaptiveBag<>(AdaptiveBag.UPGRADE_SIZE + 2);
+    for (int i = 0 ; i < AdaptiveBag.UPGRADE_SIZE + 2 ; i++)
+    {
+      bag.add(i);
+    }
+    try
+    {
+      bag.add(-1);
+      fail("Expected BagException");
+    }
+    catch (BagException e)
+    {
+      assertEquals(AdaptiveBag.UPGRADE_SIZE + 2, bag.size());
+    }
+  }
+
+  @Test
+  public void tinyBagGrowsPastItsCapacity() throws BagException
+  {
+    AdaptiveBag<Integer> bag = new AdaptiveBag<>(1, Bag.UNBOUNDED);
+    for (int i = 0 ; i < AdaptiveBag.UPGRADE_SIZE * 2 ; i++)
+    {
+      bag.addWithOccurrences(i, i + 1);
+    }
+    assertEquals(AdaptiveBag.UPGRADE_SIZE * 2, bag.size());
+    for (int i = 0 ; i < AdaptiveBag.UPGRADE_SIZE * 2 ; i++)
+    {
+      assertEquals(i + 1, bag.countOf(i));
+    }
+  }
+}
@@ -0,0 +1,341 @@
+package uk.ac.ucl.bag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A simple timing harness comparing the bag implementations. This is not a unit test and is not run by the
+ * build; run it by hand after compiling the test classes:
+ *
+ *   mvn test-compile
+ *   java -cp target/classes:target/test-classes uk.ac.ucl.bag.BagBenchmark [section ...]
+ *
+ * The sections are footprint, operations, merge, shards and contention; all of them are run if none is named.
+ *
+ * Each run adds every distinct value twice, looks every value up once and then removes every occurrence,
+ * reporting the time taken for each phase. The figures are wall clock times from a single run after one
+ * warm-up run, so treat them as a rough guide rather than a precise measurement.
+ *
+ * Finally it times createMergedAllUnique and createMergedAllOccurrences on two bags that share half their
+ * values, with the factory set to each bag class in turn.
+ *
+ * The shards section compares Bags.mergeAll with chaining createMergedAllOccurrences over many small bags.
+ *
+ * The contention section has 1 to 64 threads adding a fixed total number of values to one shared bag,
+ * comparing ConcurrentHashBag with a HashBag guarded by a single lock.
+ *
+ * Before all that it estimates the heap used per distinct Integer value by each layout, from the change in used heap
+ * after building a bag and forcing a garbage collection.
+ */
+public class BagBenchmark
+{
+  private static final String[] BAG_CLASSES = {"ArrayBag", "HashBag", "TreeBag"};
+  private static final int[] DISTINCT_VALUES = {1_000, 100_000, 10_000_000};
+
+  // ArrayBag is quadratic in the number of distinct values, so larger runs would take hours.
+  private static final int ARRAY_BAG_LIMIT = 100_000;
+
+  private static Integer[] makeValues(int distinct)
+  {
+    Integer[] values = new Integer[distinct];
+    for (int i = 0 ; i < distinct ; i++)
+    {
+      values[i] = i * 31;
+    }
+    return values;
+  }
+
+  private static long[] run(String bagClass, Integer[] values) throws BagException
+  {
+    BagFactory<Integer> factory = BagFactory.getInstance();
+    factory.setBagClass(bagClass);
+    Bag<Integer> bag = factory.getBag();
+
+    long start = System.nanoTime();
+    for (Integer value : values) bag.add(value);
+    for (Integer value : values) bag.add(value);
+    long added = System.nanoTime();
+    long total = 0;
+    for (Integer value : values) total += bag.countOf(value);
+    long counted = System.nanoTime();
+    for (Integer value : values) bag.remove(value);
+    for (Integer value : values) bag.remove(value);
+    long removed = System.nanoTime();
+
+    if (total != 2L * values.length || !bag.isEmpty())
+    {
+      throw new IllegalStateException(bagClass + " returned wrong results");
+    }
+    return new long[] {added - start, counted - added, removed - counted};
+  }
+
+  private static final int FOOTPRINT_VALUES = 50_000;
+
+  private static long usedHeap()
+  {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0 ; i < 5 ; i++)
+    {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private interface BagBuilder
+  {
+    Object build() throws BagException;
+  }
+
+  private static void footprint(String name, BagBuilder builder) throws BagException
+  {
+    long before = usedHeap();
+    Object bag = builder.build();
+    long after = usedHeap();
+    // Print the bag's class after measuring so it is still reachable during the second collection.
+    System.out.printf("%-10s %8.1f bytes per distinct value (%s)%n", name,
+      (after - before) / (double) FOOTPRINT_VALUES, bag.getClass().getSimpleName());
+  }
+
+  private static void footprints() throws BagException
+  {
+    for (String bagClass : BAG_CLASSES)
+    {
+      footprint(bagClass, () -> {
+        BagFactory<Integer> factory = BagFactory.getInstance();
+        factory.setBagClass(bagClass);
+        Bag<Integer> bag = factory.getBag();
+        for (int i = 0 ; i < FOOTPRINT_VALUES ; i++) bag.add(i * 31 + 100_000);
+        return bag;
+      });
+    }
+    footprint("IntBag", () -> {
+      IntBag bag = new IntBag();
+      for (int i = 0 ; i < FOOTPRINT_VALUES ; i++) bag.add(i * 31 + 100_000);
+      return bag;
+    });
+  }
+
+  private static final int[] MERGE_DISTINCT_VALUES = {10_000, 100_000};
+
+  private static long[] runMerge(String bagClass, int distinct) throws BagException
+  {
+    BagFactory<Integer> factory = BagFactory.getInstance();
+    factory.setBagClass(bagClass);
+    Bag<Integer> a = factory.getPresizedBag(distinct);
+    Bag<Integer> b = factory.getPresizedBag(distinct);
+    for (int i = 0 ; i < distinct ; i++)
+    {
+      a.addWithOccurrences(i * 31, 2);
+      b.addWithOccurrences((i + distinct / 2) * 31, 3);
+    }
+
+    long start = System.nanoTime();
+    Bag<Integer> unique = a.createMergedAllUnique(b);
+    long mergedUnique = System.nanoTime();
+    Bag<Integer> all = a.createMergedAllOccurrences(b);
+    long mergedAll = System.nanoTime();
+
+    int expected = distinct + distinct / 2;
+    if (unique.size() != expected || all.size() != expected)
+    {
+      throw new IllegalStateException(bagClass + " merged wrongly");
+    }
+    return new long[] {mergedUnique - start, mergedAll - mergedUnique};
+  }
+
+  private static void merges() throws BagException
+  {
+    System.out.printf("%-10s %12s %13s %13s%n", "bag", "distinct", "allUnique", "allOccur.");
+    for (int distinct : MERGE_DISTINCT_VALUES)
+    {
+      for (String bagClass : BAG_CLASSES)
+      {
+        if (bagClass.equals("ArrayBag") && distinct > ARRAY_BAG_LIMIT / 4)
+        {
+          System.out.printf("%-10s %12d   skipped: too slow%n", bagClass, distinct);
+          continue;
+        }
+        runMerge(bagClass, distinct);
+        long[] times = runMerge(bagClass, distinct);
+        System.out.printf("%-10s %12d %s %s%n", bagClass, distinct, millis(times[0]), millis(times[1]));
+      }
+    }
+  }
+
+  private static final int SHARDS = 2000;
+  private static final int VALUES_PER_SHARD = 2000;
+  private static final int SHARD_UNIVERSE = 200_000;
+
+  private static void shards() throws BagException
+  {
+    BagFactory<Integer> factory = BagFactory.getInstance();
+    factory.setBagClass("HashBag");
+    List<Bag<Integer>> shards = new ArrayList<>();
+    Random random = new Random(42);
+    for (int i = 0 ; i < SHARDS ; i++)
+    {
+      Bag<Integer> shard = factory.getPresizedBag(VALUES_PER_SHARD);
+      for (int j = 0 ; j < VALUES_PER_SHARD ; j++)
+      {
+        shard.add(random.nextInt(SHARD_UNIVERSE));
+      }
+      shards.add(shard);
+    }
+    System.out.printf("Merging %d HashBags of %d values, %d cores%n", SHARDS, VALUES_PER_SHARD,
+      Runtime.getRuntime().availableProcessors());
+    for (int round = 0 ; round < 2 ; round++)
+    {
+      long start = System.nanoTime();
+      Bag<Integer> chained = factory.getBag();
+      for (Bag<Integer> shard : shards)
+      {
+        chained = chained.createMergedAllOccurrences(shard);
+      }
+      long chainedTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      Bag<Integer> merged = Bags.mergeAll(shards, MergeMode.ALL_OCCURRENCES);
+      long mergeAllTime = System.nanoTime() - start;
+      if (chained.size() != merged.size())
+      {
+        throw new IllegalStateException("mergeAll gave a different result");
+      }
+      System.out.printf("pairwise chain %s, mergeAll %s%n", millis(chainedTime), millis(mergeAllTime));
+    }
+  }
+
+  private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+  private static final int CONTENTION_ADDS = 4_000_000;
+  private static final int CONTENTION_UNIVERSE = 100_000;
+
+  /*
+    Time threads adding CONTENTION_ADDS values in total to the bag, through the given add operation.
+   */
+  private static long timeThreads(int threads, IntAdder adder) throws BagException
+  {
+    Thread[] workers = new Thread[threads];
+    BagException[] failure = new BagException[1];
+    long start = System.nanoTime();
+    for (int t = 0 ; t < threads ; t++)
+    {
+      int seed = t;
+      workers[t] = new Thread(() -> {
+        Random random = new Random(seed);
+        try
+        {
+          for (int i = 0 ; i < CONTENTION_ADDS / threads ; i++)
+          {
+            // Squaring a uniform value skews the keys towards zero, giving some hot values.
+            double r = random.nextDouble();
+            adder.add((int) (r * r * CONTENTION_UNIVERSE));
+          }
+        }
+        catch (BagException e)
+        {
+          failure[0] = e;
+        }
+      });
+      workers[t].start();
+    }
+    for (Thread worker : workers)
+    {
+      try
+      {
+        worker.join();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (failure[0] != null)
+    {
+      throw failure[0];
+    }
+    return System.nanoTime() - start;
+  }
+
+  private interface IntAdder
+  {
+    void add(int value) throws BagException;
+  }
+
+  private static void contention() throws BagException
+  {
+    System.out.printf("%d adds shared between threads, %d cores%n", CONTENTION_ADDS,
+      Runtime.getRuntime().availableProcessors());
+    System.out.printf("%8s %13s %13s%n", "threads", "locked", "concurrent");
+    for (int threads : THREAD_COUNTS)
+    {
+      Bag<Integer> locked = new HashBag<>();
+      Bag<Integer> concurrent = new ConcurrentHashBag<>();
+      long lockedTime = timeThreads(threads, value -> {
+        synchronized (locked)
+        {
+          locked.add(value);
+        }
+      });
+      long concurrentTime = timeThreads(threads, concurrent::add);
+      System.out.printf("%8d %s %s%n", threads, millis(lockedTime), millis(concurrentTime));
+    }
+  }
+
+  private static String millis(long nanos)
+  {
+    return String.format("%10.1f ms", nanos / 1e6);
+  }
+
+  private static void operations() throws BagException
+  {
+    System.out.printf("%-10s %12s %13s %13s %13s%n", "bag", "distinct", "add", "countOf", "remove");
+    for (int distinct : DISTINCT_VALUES)
+    {
+      Integer[] values = makeValues(distinct);
+      for (String bagClass : BAG_CLASSES)
+      {
+        if (bagClass.equals("ArrayBag") && distinct > ARRAY_BAG_LIMIT)
+        {
+          System.out.printf("%-10s %12d   skipped: too slow%n", bagClass, distinct);
+          continue;
+        }
+        run(bagClass, values);
+        long[] times = run(bagClass, values);
+        System.out.printf("%-10s %12d %s %s %s%n", bagClass, distinct, millis(times[0]), millis(times[1]), millis(times[2]));
+      }
+    }
+  }
+
+  /*
+    With no arguments every section is run. Otherwise give the names of the sections to run.
+   */
+  public static void main(String[] args) throws BagException
+  {
+    List<String> sections = Arrays.asList(args.length > 0 ? args : new String[] {"footprint", "operations", "merge", "shards", "contention"});
+    if (sections.contains("footprint"))
+    {
+      footprints();
+      System.out.println();
+    }
+    if (sections.contains("operations"))
+    {
+      operations();
+      System.out.println();
+    }
+    if (sections.contains("merge"))
+    {
+      merges();
+      System.out.println();
+    }
+    if (sections.contains("shards"))
+    {
+      shards();
+      System.out.println();
+    }
+    if (sections.contains("contention"))
+    {
+      contention();
+      System.out.println();
+    }
+  }
+}
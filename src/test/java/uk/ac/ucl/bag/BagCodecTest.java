@@ -0,0 +1,165 @@
+package uk.ac.ucl.bag;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Checks that bags written by a BagCodec read back with the same contents.
+ */
+public class BagCodecTest
+{
+  private static void assertSameContents(Bag<?> expected, Bag<?> actual)
+  {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected.totalOccurrences(), actual.totalOccurrences());
+    for (Object value : expected)
+    {
+      assertEquals(((Bag) expected).countOfLong((Comparable) value), ((Bag) actual).countOfLong((Comparable) value));
+    }
+  }
+
+  @Test
+  public void stringsRoundTripThroughAStream() throws IOException, BagException
+  {
+    HashBag<String> bag = new HashBag<>();
+    bag.addWithOccurrences("apple", 3);
+    bag.add("café");
+    bag.addWithOccurrences("", 200);
+    bag.addWithOccurrences("wide", 5_000_000_000L);
+    BagCodec<String> codec = new BagCodec<>(ValueCodecs.UTF8);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    codec.write(bag, new DataOutputStream(bytes));
+    HashBag<String> copy = new HashBag<>();
+    codec.readInto(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), copy);
+    assertSameContents(bag, copy);
+  }
+
+  @Test
+  public void numbersRoundTripThroughABuffer() throws IOException, BagException
+  {
+    TreeBag<Long> longs = new TreeBag<>();
+    ArrayBag<Integer> ints = new ArrayBag<>();
+    for (int i = -50 ; i < 50 ; i++)
+    {
+      longs.addWithOccurrences(i * 1_000_000_000_000L, i + 51);
+      ints.addWithOccurrences(i, i + 51);
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+    new BagCodec<>(ValueCodecs.FIXED_LONG).write(longs, buffer);
+    new BagCodec<>(ValueCodecs.FIXED_INT).write(ints, buffer);
+    buffer.flip();
+    BagFactory.getInstance().setBagClass("HashBag");
+    assertSameContents(longs, new BagCodec<>(ValueCodecs.FIXED_LONG).read(buffer));
+    assertSameContents(ints, new BagCodec<>(ValueCodecs.FIXED_INT).read(buffer));
+    assertEquals(0, buffer.remaining());
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void truncatedDataIsRejected() throws IOException, BagException
+  {
+    ArrayBag<String> bag = new ArrayBag<>();
+    bag.addWithOccurrences("truncated", 4);
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    new BagCodec<>(ValueCodecs.UTF8).write(bag, buffer);
+    buffer.flip();
+    buffer.limit(buffer.limit() - 3);
+    BagFactory.getInstance().setBagClass("HashBag");
+    new BagCodec<>(ValueCodecs.UTF8).read(buffer);
+  }
+
+  @Test
+  public void buffersAreBigEndianWhateverTheirOrder() throws IOException, BagException
+  {
+    TreeBag<Integer> bag = new TreeBag<>();
+    bag.addWithOccurrences(7, 300);
+    bag.add(-1);
+    BagCodec<Integer> codec = new BagCodec<>(ValueCodecs.FIXED_INT);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    codec.write(bag, new DataOutputStream(bytes));
+    ByteBuffer buffer = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+    codec.write(bag, buffer);
+    assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.order());
+    assertArrayEquals(bytes.toByteArray(), Arrays.copyOf(buffer.array(), buffer.position()));
+    buffer.flip();
+    BagFactory.getInstance().setBagClass("HashBag");
+    assertSameContents(bag, codec.read(buffer));
+    assertEquals(0, buffer.remaining());
+  }
+
+  @Test(expected = EOFException.class)
+  public void corruptStringLengthRunsOutOfInput() throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    BagCodec.writeVarLong(Integer.MAX_VALUE - 8, out);
+    out.writeBytes("short");
+    ValueCodecs.UTF8.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+  }
+
+  private static byte[] header(long size) throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(BagCodec.MAGIC);
+    out.writeByte(BagCodec.VERSION);
+    BagCodec.writeVarLong(size, out);
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void corruptSizeRunsOutOfInput() throws IOException, BagException
+  {
+    byte[] bytes = header(Integer.MAX_VALUE);
+    BagCodec<String> codec = new BagCodec<>(ValueCodecs.UTF8);
+    for (String bagClass : new String[] {"ArrayBag", "HashBag"})
+    {
+      BagFactory.getInstance().setBagClass(bagClass);
+      try
+      {
+        codec.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        fail("Read a bag with missing records");
+      }
+      catch (StreamCorruptedException e)
+      {
+        // Expected.
+      }
+      try
+      {
+        codec.read(ByteBuffer.wrap(bytes));
+        fail("Read a bag with missing records");
+      }
+      catch (StreamCorruptedException e)
+      {
+        // Expected.
+      }
+    }
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void repeatedValueIsRejected() throws IOException, BagException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.write(header(2));
+    ValueCodecs.UTF8.write("x", out);
+    BagCodec.writeVarLong(3, out);
+    ValueCodecs.UTF8.write("x", out);
+    BagCodec.writeVarLong(4, out);
+    BagFactory.getInstance().setBagClass("HashBag");
+    new BagCodec<>(ValueCodecs.UTF8).read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+  }
+}
@@ -0,0 +1,425 @@
+package uk.ac.ucl.bag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Checks the behaviour required by the Bag interface against every implementation the BagFactory can create.
+ */
+@RunWith(Parameterized.class)
+public class BagContractTest
+{
+  @Parameters(name = "{0}")
+  public static Collection<Object[]> bagClasses()
+  {
+    return Arrays.asList(new Object[][] {
+      {"ArrayBag"},
+      {"HashBag"},
+      {"TreeBag"},
+      {"ConcurrentHashBag"},
+      {"AdaptiveBag"},
+      {"RankedBag"},
+      {"OffHeapBag"}
+    });
+  }
+
+  private final String bagClass;
+  private Bag<String> bag;
+
+  public BagContractTest(String bagClass)
+  {
+    this.bagClass = bagClass;
+  }
+
+  @Before
+  public void createBag() throws BagException
+  {
+    bag = newBag();
+  }
+
+  private Bag<String> newBag() throws BagException
+  {
+    BagFactory<String> factory = BagFactory.getInstance();
+    factory.setBagClass(bagClass);
+    return factory.getBag();
+  }
+
+  private static <T extends Comparable> List<T> toList(Iterator<T> iterator)
+  {
+    List<T> list = new ArrayList<>();
+    while (iterator.hasNext())
+    {
+      list.add(iterator.next());
+    }
+    Collections.sort(list);
+    return list;
+  }
+
+  @Test
+  public void newBagIsEmpty()
+  {
+    assertTrue(bag.isEmpty());
+    assertEquals(0, bag.size());
+    assertFalse(bag.iterator().hasNext());
+    assertFalse(bag.allOccurrencesIterator().hasNext());
+  }
+
+  @Test
+  public void addCountsOccurrences() throws BagException
+  {
+    bag.add("abc");
+    bag.add("def");
+    bag.add("abc");
+    assertEquals(2, bag.size());
+    assertEquals(2, bag.countOf("abc"));
+    assertEquals(1, bag.countOf("def"));
+    assertEquals(0, bag.countOf("xyz"));
+    assertTrue(bag.contains("def"));
+    assertFalse(bag.contains("xyz"));
+  }
+
+  @Test
+  public void addWithOccurrencesAddsAll() throws BagException
+  {
+    bag.addWithOccurrences("xyz", 5);
+    bag.addWithOccurrences("xyz", 2);
+    assertEquals(1, bag.size());
+    assertEquals(7, bag.countOf("xyz"));
+  }
+
+  @Test(expected = BagException.class)
+  public void addWithNegativeOccurrencesFails() throws BagException
+  {
+    bag.addWithOccurrences("xyz", -1);
+  }
+
+  @Test
+  public void countsWidenPastIntegerMaxValue() throws BagException
+  {
+    bag.addWithOccurrences("xyz", Integer.MAX_VALUE);
+    bag.add("xyz");
+    bag.add("abc");
+    assertEquals(Integer.MAX_VALUE, bag.countOf("xyz"));
+    assertEquals(Integer.MAX_VALUE + 1L, bag.countOfLong("xyz"));
+    bag.addWithOccurrences("big", 5_000_000_000L);
+    assertEquals(5_000_000_000L, bag.countOfLong("big"));
+    assertEquals(7_147_483_649L, bag.totalOccurrences());
+    assertEquals(1_000_000_000, bag.removeOccurrences("big", 1_000_000_000));
+    assertEquals(4_000_000_000L, bag.countOfLong("big"));
+    assertEquals(2, bag.removeOccurrences("xyz", 2));
+    assertEquals(Integer.MAX_VALUE - 1, bag.countOf("xyz"));
+    assertEquals(Integer.MAX_VALUE - 1L, bag.countOfLong("xyz"));
+    assertEquals(1, bag.countOfLong("abc"));
+  }
+
+  @Test
+  public void removeAllRemovesWideCounts() throws BagException
+  {
+    bag.addWithOccurrences("big", 3_000_000_000L);
+    bag.add("abc");
+    assertEquals(Integer.MAX_VALUE, bag.removeAll("big"));
+    assertFalse(bag.contains("big"));
+    assertEquals(0, bag.countOfLong("big"));
+    assertEquals(1, bag.totalOccurrences());
+    assertEquals(1, bag.size());
+  }
+
+  /*
+    Split a spliterator to the given depth, adding up the sizes of the pieces.
+   */
+  private static long splitSize(Spliterator<String> spliterator, int depth)
+  {
+    Spliterator<String> prefix = depth > 0 ? spliterator.trySplit() : null;
+    if (prefix == null)
+    {
+      return spliterator.estimateSize();
+    }
+    return splitSize(prefix, depth - 1) + splitSize(spliterator, depth - 1);
+  }
+
+  @Test
+  public void occurrenceSpliteratorCoversWideCounts() throws BagException
+  {
+    bag.add("abc");
+    bag.addWithOccurrences("big", 3_000_000_000L);
+    bag.addWithOccurrences("def", 2);
+    Spliterator<String> occurrences = bag.allOccurrencesSpliterator();
+    if (occurrences.hasCharacteristics(Spliterator.SIZED))
+    {
+      assertEquals(3_000_000_003L, occurrences.estimateSize());
+    }
+    // An unsized spliterator puts the whole of a small bag in its first batch.
+    boolean sized = occurrences.hasCharacteristics(Spliterator.SIZED);
+    Spliterator<String> batch = occurrences.trySplit();
+    assertEquals(3_000_000_003L, splitSize(batch, 6) + (sized ? splitSize(occurrences, 6) : 0));
+  }
+
+  @Test
+  public void wideCountsSurviveMerging() throws BagException
+  {
+    bag.addWithOccurrences("xyz", 3_000_000_000L);
+    Bag<String> other = newBag();
+    other.addWithOccurrences("xyz", 3_000_000_000L);
+    other.add("abc");
+    Bag<String> merged = bag.createMergedAllOccurrences(other);
+    assertEquals(6_000_000_000L, merged.countOfLong("xyz"));
+    assertEquals(1, merged.countOfLong("abc"));
+  }
+
+  @Test
+  public void addWithOccurrencesRejectsLongOverflow() throws BagException
+  {
+    bag.addWithOccurrences("xyz", Long.MAX_VALUE);
+    try
+    {
+      bag.add("xyz");
+      fail("Expected BagException");
+    }
+    catch (BagException e)
+    {
+      assertEquals(Long.MAX_VALUE, bag.countOfLong("xyz"));
+    }
+  }
+
+  @Test
+  public void addAllWithOccurrencesLoadsPreCountedValues() throws BagException
+  {
+    Map<String, Integer> counts = new HashMap<>();
+    counts.put("abc", 3);
+    counts.put("def", 1);
+    bag.add("abc");
+    bag.addAllWithOccurrences(counts);
+    assertEquals(2, bag.size());
+    assertEquals(4, bag.countOf("abc"));
+    assertEquals(1, bag.countOf("def"));
+  }
+
+  @Test
+  public void unboundedBagGrowsPastFormerLimit() throws BagException
+  {
+    for (int i = 0 ; i < 5000 ; i++)
+    {
+      bag.add("v" + i);
+    }
+    assertEquals(5000, bag.size());
+    assertEquals(1, bag.countOf("v4999"));
+  }
+
+  @Test
+  public void boundedBagRejectsNewValuesWhenFull() throws BagException
+  {
+    BagFactory<String> factory = BagFactory.getInstance();
+    Bag<String> bounded = factory.getBag(2);
+    bounded.add("abc");
+    bounded.add("def");
+    bounded.add("abc");
+    try
+    {
+      bounded.add("xyz");
+      fail("Expected BagException");
+    }
+    catch (BagException e)
+    {
+      assertEquals(2, bounded.size());
+    }
+  }
+
+  @Test
+  public void presizedBagBehavesLikeAnyOther() throws BagException
+  {
+    BagFactory<String> factory = BagFactory.getInstance();
+    Bag<String> presized = factory.getPresizedBag(10000);
+    presized.addWithOccurrences("abc", 2);
+    assertEquals(2, presized.countOf("abc"));
+    assertEquals(1, presized.size());
+  }
+
+  @Test
+  public void removeDecrementsThenDeletes() throws BagException
+  {
+    bag.addWithOccurrences("abc", 2);
+    bag.add("def");
+    bag.add("ghi");
+    bag.remove("abc");
+    assertEquals(1, bag.countOf("abc"));
+    bag.remove("abc");
+    assertFalse(bag.contains("abc"));
+    assertEquals(2, bag.size());
+    assertEquals(Arrays.asList("def", "ghi"), toList(bag.iterator()));
+    bag.remove("missing");
+    assertEquals(2, bag.size());
+  }
+
+  @Test
+  public void removeOccurrencesReturnsNumberRemoved() throws BagException
+  {
+    bag.addWithOccurrences("abc", 5);
+    bag.add("def");
+    assertEquals(3, bag.removeOccurrences("abc", 3));
+    assertEquals(2, bag.countOf("abc"));
+    assertEquals(2, bag.removeOccurrences("abc", 10));
+    assertFalse(bag.contains("abc"));
+    assertEquals(0, bag.removeOccurrences("abc", 1));
+    assertEquals(1, bag.removeAll("def"));
+    assertTrue(bag.isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void removeNegativeOccurrencesFails() throws BagException
+  {
+    bag.add("abc");
+    bag.removeOccurrences("abc", -1);
+  }
+
+  @Test
+  public void manyDistinctValuesSurviveAddAndRemove() throws BagException
+  {
+    for (int i = 0 ; i < 500 ; i++)
+    {
+      bag.addWithOccurrences("v" + i, i % 3 + 1);
+    }
+    for (int i = 0 ; i < 500 ; i += 2)
+    {
+      for (int j = 0 ; j < i % 3 + 1 ; j++)
+      {
+        bag.remove("v" + i);
+      }
+    }
+    assertEquals(250, bag.size());
+    for (int i = 0 ; i < 500 ; i++)
+    {
+      assertEquals(i % 2 == 0 ? 0 : i % 3 + 1, bag.countOf("v" + i));
+    }
+  }
+
+  @Test
+  public void iteratorsReturnUniqueAndAllOccurrences() throws BagException
+  {
+    bag.add("def");
+    bag.addWithOccurrences("abc", 3);
+    assertEquals(Arrays.asList("abc", "def"), toList(bag.iterator()));
+    assertEquals(Arrays.asList("abc", "abc", "abc", "def"), toList(bag.allOccurrencesIterator()));
+  }
+
+  @Test
+  public void forEachEntryPassesEachValueWithItsCount() throws BagException
+  {
+    bag.add("def");
+    bag.addWithOccurrences("abc", 3);
+    Map<String, Integer> entries = new HashMap<>();
+    bag.forEachEntry((value, count) -> assertEquals(null, entries.put(value, count)));
+    assertEquals(2, entries.size());
+    assertEquals(Integer.valueOf(3), entries.get("abc"));
+    assertEquals(Integer.valueOf(1), entries.get("def"));
+  }
+
+  @Test
+  public void occurrenceCursorGivesEachValueOnceWithItsCount() throws BagException
+  {
+    bag.add("def");
+    bag.addWithOccurrences("abc", 3);
+    Map<String, Integer> entries = new HashMap<>();
+    OccurrenceCursor<String> cursor = bag.occurrenceCursor();
+    while (cursor.advance())
+    {
+      assertEquals(null, entries.put(cursor.value(), cursor.count()));
+    }
+    assertEquals(2, entries.size());
+    assertEquals(Integer.valueOf(3), entries.get("abc"));
+    assertEquals(Integer.valueOf(1), entries.get("def"));
+  }
+
+  @Test
+  public void allOccurrencesSpliteratorSplitsLargeRuns() throws BagException
+  {
+    bag.addWithOccurrences("abc", 100000);
+    bag.add("def");
+    Spliterator<String> spliterator = bag.allOccurrencesSpliterator();
+    Spliterator<String> prefix = spliterator.trySplit();
+    assertTrue(prefix != null);
+    List<String> all = new ArrayList<>();
+    prefix.forEachRemaining(all::add);
+    spliterator.forEachRemaining(all::add);
+    Collections.sort(all);
+    assertEquals(toList(bag.allOccurrencesIterator()), all);
+    Map<String, Long> counts = StreamSupport.stream(bag.allOccurrencesSpliterator(), true)
+      .collect(Collectors.groupingByConcurrent(value -> value, Collectors.counting()));
+    assertEquals(Long.valueOf(100000), counts.get("abc"));
+    assertEquals(Long.valueOf(1), counts.get("def"));
+  }
+
+  @Test
+  public void streamsReturnValuesEntriesAndOccurrences() throws BagException
+  {
+    for (int i = 0 ; i < 2000 ; i++)
+    {
+      bag.addWithOccurrences("v" + i, i % 5 + 1);
+    }
+    assertEquals(2000, bag.stream().count());
+    assertEquals(2000, bag.parallelStream().distinct().count());
+    assertEquals(6000, bag.entryStream().parallel().mapToLong(BagEntry::getCount).sum());
+    assertEquals(6000, bag.occurrenceStream().parallel().count());
+    assertEquals(Arrays.asList(new BagEntry<>("v3", 4)),
+      bag.entryStream().filter(entry -> entry.getValue().equals("v3")).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void topKReturnsHighestCountsFirst() throws BagException
+  {
+    for (int i = 0 ; i < 100 ; i++)
+    {
+      bag.addWithOccurrences("v" + i, i + 1);
+    }
+    assertEquals(Arrays.asList(new BagEntry<>("v99", 100), new BagEntry<>("v98", 99), new BagEntry<>("v97", 98)),
+      bag.topK(3));
+    assertEquals(100, bag.topK(1000).size());
+    assertTrue(bag.topK(0).isEmpty());
+  }
+
+  @Test
+  public void mergedAllOccurrencesSumsCounts() throws BagException
+  {
+    bag.addWithOccurrences("abc", 2);
+    bag.add("def");
+    Bag<String> other = newBag();
+    other.addWithOccurrences("def", 3);
+    other.add("xyz");
+    Bag<String> merged = bag.createMergedAllOccurrences(other);
+    assertEquals(3, merged.size());
+    assertEquals(2, merged.countOf("abc"));
+    assertEquals(4, merged.countOf("def"));
+    assertEquals(1, merged.countOf("xyz"));
+  }
+
+  @Test
+  public void mergedAllUniqueHasCountsOfOne() throws BagException
+  {
+    bag.addWithOccurrences("abc", 2);
+    bag.add("def");
+    Bag<String> other = newBag();
+    other.addWithOccurrences("def", 3);
+    other.add("xyz");
+    Bag<String> merged = bag.createMergedAllUnique(other);
+    assertEquals(Arrays.asList("abc", "def", "xyz"), toList(merged.allOccurrencesIterator()));
+  }
+}
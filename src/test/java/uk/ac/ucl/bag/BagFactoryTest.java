@@ -0,0 +1,52 @@
+package uk.ac.ucl.bag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Checks that the BagFactory finds the built-in providers through the ServiceLoader.
+ */
+public class BagFactoryTest
+{
+  @Test
+  public void builtInProvidersAreFound()
+  {
+    BagFactory<String> factory = BagFactory.getInstance();
+    Set<String> names = new HashSet<>();
+    for (BagProvider provider : factory.getProviders())
+    {
+      names.add(provider.name());
+    }
+    assertTrue(names.contains("ArrayBag"));
+    assertTrue(names.contains("HashBag"));
+    assertTrue(names.contains("TreeBag"));
+    assertTrue(names.contains("ConcurrentHashBag"));
+    assertTrue(names.contains("IntBag"));
+    assertTrue(names.contains("LongBag"));
+  }
+
+  @Test
+  public void bagClassCanBeChosenByTraits() throws BagException
+  {
+    BagFactory<String> factory = BagFactory.getInstance();
+    assertEquals("TreeBag", factory.findBagClass(BagTrait.SORTED));
+    assertEquals("ConcurrentHashBag", factory.findBagClass(BagTrait.CONCURRENT));
+    assertNull(factory.findBagClass(BagTrait.SORTED, BagTrait.CONCURRENT));
+    factory.setBagClass(factory.findBagClass(BagTrait.SORTED));
+    assertTrue(factory.getBag() instanceof SortedBag);
+  }
+
+  @Test(expected = BagException.class)
+  public void unknownBagClassIsRejected() throws BagException
+  {
+    BagFactory<String> factory = BagFactory.getInstance();
+    factory.setBagClass("NoSuchBag");
+    factory.getBag();
+  }
+}
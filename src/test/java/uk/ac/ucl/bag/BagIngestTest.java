@@ -0,0 +1,117 @@
+package uk.ac.ucl.bag;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that BagIngest counts the same tokens however a file is split between threads and buffers.
+ */
+public class BagIngestTest
+{
+  private static final String[] WORDS = {"error", "warn", "info", "request42", "naïve", "café", "x", "GET"};
+  private static final String[] SEPARATORS = {" ", "  ", "\n", ", ", "=", "\t[", "] "};
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void splitsCountTheSameTokens() throws IOException, BagException
+  {
+    HashBag<String> expected = new HashBag<>();
+    StringBuilder text = new StringBuilder();
+    Random random = new Random(3);
+    for (int i = 0 ; i < 5000 ; i++)
+    {
+      String word = WORDS[random.nextInt(WORDS.length)];
+      expected.add(word);
+      text.append(word).append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+    }
+    text.append("last");
+    expected.add("last");
+    Path file = folder.newFile("log.txt").toPath();
+    Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+
+    BagFactory.getInstance().setBagClass("HashBag");
+    for (BagIngest ingest : new BagIngest[] {new BagIngest(), new BagIngest(16, 7), new BagIngest(4096, 3)})
+    {
+      Bag<String> counted = ingest.count(file);
+      assertEquals(expected.size(), counted.size());
+      assertEquals(expected.totalOccurrences(), counted.totalOccurrences());
+      for (String word : expected)
+      {
+        assertEquals(expected.countOf(word), counted.countOf(word));
+      }
+    }
+
+    TreeBag<String> sequential = new TreeBag<>();
+    new BagIngest(32, 1).countInto(file, sequential);
+    assertEquals(expected.totalOccurrences(), sequential.totalOccurrences());
+    assertEquals(expected.countOf("naïve"), sequential.countOf("naïve"));
+  }
+
+  @Test
+  public void longTokensAreCountedWholeAcrossSplits() throws IOException, BagException
+  {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0 ; i < 50 ; i++)
+    {
+      text.append("word ");
+    }
+    StringBuilder token = new StringBuilder();
+    for (int i = 0 ; i < 300 ; i++)
+    {
+      token.append((char) ('a' + i % 26));
+    }
+    text.append(token);
+    for (int i = 0 ; i < 50 ; i++)
+    {
+      text.append(" word");
+    }
+    Path file = folder.newFile("long.txt").toPath();
+    Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+
+    // With four parts the token, at bytes 250 to 549, crosses the split at byte 400.
+    BagFactory.getInstance().setBagClass("HashBag");
+    for (BagIngest ingest : new BagIngest[] {new BagIngest(16, 4), new BagIngest(16, 3), new BagIngest(16, 1)})
+    {
+      Bag<String> counted = ingest.count(file);
+      assertEquals(2, counted.size());
+      assertEquals(100, counted.countOf("word"));
+      assertEquals(1, counted.countOf(token.toString()));
+    }
+  }
+
+  @Test
+  public void offHeapPartsAreClosedButTheResultIsNot() throws IOException, BagException
+  {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0 ; i < 1000 ; i++)
+    {
+      text.append(WORDS[i % WORDS.length]).append(' ');
+    }
+    Path file = folder.newFile("offheap.txt").toPath();
+    Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+
+    BagFactory.getInstance().setBagClass("OffHeapBag");
+    Bag<String> counted = new BagIngest(64, 4).count(file);
+    try
+    {
+      assertEquals(WORDS.length, counted.size());
+      assertEquals(1000 / WORDS.length, counted.countOf("café"));
+    }
+    finally
+    {
+      ((OffHeapBag<String>) counted).close();
+      BagFactory.getInstance().setBagClass("HashBag");
+    }
+  }
+}
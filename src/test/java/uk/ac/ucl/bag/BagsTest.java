@@ -0,0 +1,69 @@
+package uk.ac.ucl.bag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks that Bags.mergeAll gives the same result as merging the bags one at a time.
+ */
+public class BagsTest
+{
+  private static List<Bag<Integer>> shards(int count) throws BagException
+  {
+    List<Bag<Integer>> shards = new ArrayList<>();
+    for (int shard = 0 ; shard < count ; shard++)
+    {
+      Bag<Integer> bag = new HashBag<>();
+      for (int i = 0 ; i < 200 ; i++)
+      {
+        bag.addWithOccurrences((shard * 37 + i * 11) % 1000, i % 4 + 1);
+      }
+      shards.add(bag);
+    }
+    return shards;
+  }
+
+  private static void assertSameContents(Bag<Integer> expected, Bag<Integer> actual)
+  {
+    assertEquals(expected.size(), actual.size());
+    for (Integer value : expected)
+    {
+      assertEquals(expected.countOf(value), actual.countOf(value));
+    }
+  }
+
+  @Test
+  public void mergeAllMatchesPairwiseMerging() throws BagException
+  {
+    for (String bagClass : new String[] {"ArrayBag", "HashBag", "TreeBag"})
+    {
+      BagFactory<Integer> factory = BagFactory.getInstance();
+      factory.setBagClass(bagClass);
+      List<Bag<Integer>> shards = shards(50);
+      Bag<Integer> allOccurrences = factory.getBag();
+      Bag<Integer> allUnique = factory.getBag();
+      for (Bag<Integer> shard : shards)
+      {
+        allOccurrences = allOccurrences.createMergedAllOccurrences(shard);
+        allUnique = allUnique.createMergedAllUnique(shard);
+      }
+      assertSameContents(allOccurrences, Bags.mergeAll(shards, MergeMode.ALL_OCCURRENCES));
+      assertSameContents(allUnique, Bags.mergeAll(shards, MergeMode.ALL_UNIQUE));
+    }
+  }
+
+  @Test
+  public void mergeAllOfNothingIsEmpty() throws BagException
+  {
+    BagFactory<Integer> factory = BagFactory.getInstance();
+    factory.setBagClass("HashBag");
+    List<Bag<Integer>> none = Collections.emptyList();
+    assertTrue(Bags.mergeAll(none, MergeMode.ALL_OCCURRENCES).isEmpty());
+  }
+}
@@ -0,0 +1,77 @@
+package uk.ac.ucl.bag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Checks that no updates are lost when many threads change a ConcurrentHashBag at once.
+ */
+public class ConcurrentHashBagTest
+{
+  private static final int THREADS = 8;
+  private static final int OPERATIONS = 20_000;
+
+  private static void runConcurrently(Callable<Void> task) throws Exception
+  {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try
+    {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int i = 0 ; i < THREADS ; i++)
+      {
+        futures.add(executor.submit(task));
+      }
+      for (Future<Void> future : futures)
+      {
+        future.get();
+      }
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void concurrentAddsAreAllCounted() throws Exception
+  {
+    Bag<Integer> bag = new ConcurrentHashBag<>();
+    runConcurrently(() -> {
+      for (int i = 0 ; i < OPERATIONS ; i++)
+      {
+        bag.add(i % 100);
+      }
+      return null;
+    });
+    assertEquals(100, bag.size());
+    for (int value = 0 ; value < 100 ; value++)
+    {
+      assertEquals(THREADS * OPERATIONS / 100, bag.countOf(value));
+    }
+  }
+
+  @Test
+  public void concurrentAddAndRemoveBalanceOut() throws Exception
+  {
+    Bag<Integer> bag = new ConcurrentHashBag<>();
+    runConcurrently(() -> {
+      for (int i = 0 ; i < OPERATIONS ; i++)
+      {
+        // Each value is repeatedly taken to zero and back, so counters die and are replaced.
+        bag.add(i % 10);
+        bag.remove(i % 10);
+      }
+      return null;
+    });
+    assertTrue(bag.isEmpty());
+  }
+}
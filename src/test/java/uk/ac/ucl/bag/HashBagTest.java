@@ -0,0 +1,55 @@
+package uk.ac.ucl.bag;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks that a HashBag matches values by hashCode and compareTo, not equals, for counts of every size.
+ */
+public class HashBagTest
+{
+  /*
+    A key compared by its number, but equal to any key in the same group of ten, so equals disagrees with
+    compareTo. The hash code is that of the group, which is consistent with both.
+   */
+  private static class Key implements Comparable<Key>
+  {
+    private final int number;
+
+    Key(int number)
+    {
+      this.number = number;
+    }
+
+    public int compareTo(Key other)
+    {
+      return Integer.compare(number, other.number);
+    }
+
+    public boolean equals(Object other)
+    {
+      return other instanceof Key && ((Key) other).number / 10 == number / 10;
+    }
+
+    public int hashCode()
+    {
+      return number / 10;
+    }
+  }
+
+  @Test
+  public void wideCountsAreKeptApartByCompareTo() throws BagException
+  {
+    HashBag<Key> bag = new HashBag<>();
+    bag.addWithOccurrences(new Key(1), 3_000_000_000L);
+    bag.addWithOccurrences(new Key(2), 4_000_000_000L);
+    assertEquals(2, bag.size());
+    assertEquals(3_000_000_000L, bag.countOfLong(new Key(1)));
+    assertEquals(4_000_000_000L, bag.countOfLong(new Key(2)));
+    bag.addWithOccurrences(new Key(1), 5);
+    assertEquals(3_000_000_005L, bag.countOfLong(new Key(1)));
+    assertEquals(4_000_000_000L, bag.countOfLong(new Key(2)));
+    assertEquals(7_000_000_005L, bag.totalOccurrences());
+  }
+}
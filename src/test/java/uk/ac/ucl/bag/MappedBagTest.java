@@ -0,0 +1,98 @@
+package uk.ac.ucl.bag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that a MappedBag reads back the contents of the bag it was written from, using chunks small enough
+ * that many records cross from one chunk into the next.
+ */
+public class MappedBagTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void readsBackAnUnsortedBag() throws IOException, BagException
+  {
+    HashBag<String> bag = new HashBag<>();
+    for (int i = 0 ; i < 500 ; i++)
+    {
+      bag.addWithOccurrences("value" + i, i % 7 + 1);
+    }
+    bag.addWithOccurrences("wide", 3_000_000_000L);
+    Path file = folder.newFile("strings.bag").toPath();
+    MappedBag.write(bag, ValueCodecs.UTF8, file);
+    MappedBag<String> mapped = new MappedBag<>(file, ValueCodecs.UTF8, 6);
+
+    assertEquals(bag.size(), mapped.size());
+    assertEquals(bag.totalOccurrences(), mapped.totalOccurrences());
+    for (String value : bag)
+    {
+      assertEquals(bag.countOfLong(value), mapped.countOfLong(value));
+    }
+    assertEquals(Integer.MAX_VALUE, mapped.countOf("wide"));
+    assertFalse(mapped.contains("missing"));
+    assertFalse(mapped.contains("value500"));
+
+    List<String> values = new ArrayList<>();
+    mapped.forEach(values::add);
+    List<String> sorted = new ArrayList<>(values);
+    sorted.sort(null);
+    assertEquals(sorted, values);
+    assertEquals(bag.size(), values.size());
+  }
+
+  @Test
+  public void iteratesEveryOccurrenceOfASortedBag() throws IOException, BagException
+  {
+    TreeBag<Integer> bag = new TreeBag<>();
+    bag.addWithOccurrences(-5, 2);
+    bag.add(0);
+    bag.addWithOccurrences(9, 3);
+    Path file = folder.newFile("ints.bag").toPath();
+    MappedBag.write(bag, ValueCodecs.FIXED_INT, file);
+    MappedBag<Integer> mapped = new MappedBag<>(file, ValueCodecs.FIXED_INT);
+
+    Iterator<Integer> expected = bag.allOccurrencesIterator();
+    Iterator<Integer> actual = mapped.allOccurrencesIterator();
+    while (expected.hasNext())
+    {
+      assertEquals(expected.next(), actual.next());
+    }
+    assertFalse(actual.hasNext());
+    BagFactory.getInstance().setBagClass("TreeBag");
+    Bag<Integer> merged = mapped.createMergedAllOccurrences(bag);
+    assertEquals(6, merged.countOf(9));
+  }
+
+  @Test
+  public void emptyBagsCanBeMapped() throws IOException, BagException
+  {
+    Path file = folder.newFile("empty.bag").toPath();
+    MappedBag.write(new ArrayBag<Long>(), ValueCodecs.FIXED_LONG, file);
+    MappedBag<Long> mapped = new MappedBag<>(file, ValueCodecs.FIXED_LONG);
+    assertTrue(mapped.isEmpty());
+    assertFalse(mapped.iterator().hasNext());
+    assertFalse(mapped.contains(1L));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void cannotBeChanged() throws IOException, BagException
+  {
+    Path file = folder.newFile("fixed.bag").toPath();
+    MappedBag.write(new ArrayBag<Long>(), ValueCodecs.FIXED_LONG, file);
+    new MappedBag<>(file, ValueCodecs.FIXED_LONG).add(1L);
+  }
+}
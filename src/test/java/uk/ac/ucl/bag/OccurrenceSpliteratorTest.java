@@ -0,0 +1,65 @@
+package uk.ac.ucl.bag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+
+import org.junit.Test;
+
+/**
+ * Checks that splitting an OccurrenceSpliterator divides the occurrences exactly, including inside a run.
+ */
+public class OccurrenceSpliteratorTest
+{
+  private static void collect(Spliterator<String> spliterator, List<String> into)
+  {
+    long size = spliterator.estimateSize();
+    Spliterator<String> prefix = spliterator.trySplit();
+    if (prefix != null)
+    {
+      assertEquals(size, prefix.estimateSize() + spliterator.estimateSize());
+      collect(prefix, into);
+      collect(spliterator, into);
+    }
+    else
+    {
+      spliterator.forEachRemaining(into::add);
+    }
+  }
+
+  @Test
+  public void splittingKeepsEveryOccurrenceInOrder()
+  {
+    Object[] values = {"a", "b", "c"};
+    int[] counts = {3, 1, 7};
+    List<String> expected = new ArrayList<>();
+    for (int i = 0 ; i < values.length ; i++)
+    {
+      for (int j = 0 ; j < counts[i] ; j++)
+      {
+        expected.add((String) values[i]);
+      }
+    }
+    Spliterator<String> spliterator = new OccurrenceSpliterator<>(values, counts, values.length);
+    assertEquals(11, spliterator.estimateSize());
+    List<String> actual = new ArrayList<>();
+    collect(spliterator, actual);
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void singleRunSplitsInHalf()
+  {
+    Spliterator<String> spliterator = new OccurrenceSpliterator<>(new Object[] {"a"}, new int[] {9}, 1);
+    Spliterator<String> prefix = spliterator.trySplit();
+    assertEquals(4, prefix.estimateSize());
+    assertEquals(5, spliterator.estimateSize());
+    spliterator.tryAdvance(value -> assertEquals("a", value));
+    assertEquals(4, spliterator.estimateSize());
+    Spliterator<String> one = new OccurrenceSpliterator<>(new Object[] {"a"}, new int[] {1}, 1);
+    assertNull(one.trySplit());
+  }
+}
@@ -0,0 +1,130 @@
+package uk.ac.ucl.bag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Checks that an OffHeapBag matches a HashBag through a random mix of adds and removes large enough to fill
+ * several pages, that threads can read it at once, and that a closed bag cannot be used.
+ */
+public class OffHeapBagTest
+{
+  @Test
+  public void matchesAHashBag() throws BagException
+  {
+    try (OffHeapBag<Long> offHeap = new OffHeapBag<>(ValueCodecs.FIXED_LONG, 4, Bag.UNBOUNDED))
+    {
+      HashBag<Long> expected = new HashBag<>();
+      Random random = new Random(7);
+      for (int step = 0 ; step < 300000 ; step++)
+      {
+        long value = random.nextInt(150000);
+        if (random.nextInt(4) == 0)
+        {
+          int n = random.nextInt(3);
+          assertEquals(expected.removeOccurrences(value, n), offHeap.removeOccurrences(value, n));
+        }
+        else
+        {
+          expected.add(value);
+          offHeap.add(value);
+        }
+      }
+      offHeap.addWithOccurrences(-1L, 4_000_000_000L);
+      expected.addWithOccurrences(-1L, 4_000_000_000L);
+      assertEquals(expected.size(), offHeap.size());
+      assertEquals(expected.totalOccurrences(), offHeap.totalOccurrences());
+      offHeap.forEachEntry((value, count) -> assertEquals(expected.countOf(value), count));
+      assertEquals(4_000_000_000L, offHeap.countOfLong(-1L));
+    }
+  }
+
+  @Test(expected = BagException.class)
+  public void factoryBagsRejectOtherClasses() throws BagException
+  {
+    new OffHeapBag<Double>().add(1.5);
+  }
+
+  private static void assertClosed(Runnable use)
+  {
+    try
+    {
+      use.run();
+      fail("Closed bag was used");
+    }
+    catch (IllegalStateException e)
+    {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void closedBagCannotBeUsed() throws BagException
+  {
+    OffHeapBag<String> bag = new OffHeapBag<>();
+    bag.addWithOccurrences("closed", 2);
+    Iterator<String> iterator = bag.iterator();
+    bag.close();
+    bag.close();
+    assertClosed(bag::size);
+    assertClosed(bag::isEmpty);
+    assertClosed(bag::totalOccurrences);
+    assertClosed(() -> bag.contains("closed"));
+    assertClosed(() -> bag.countOfLong("closed"));
+    assertClosed(() -> bag.removeOccurrences("closed", 1));
+    assertClosed(iterator::hasNext);
+    assertClosed(bag::iterator);
+    assertClosed(bag::occurrenceCursor);
+  }
+
+  @Test
+  public void threadsCanReadAtOnce() throws Exception
+  {
+    try (OffHeapBag<String> bag = new OffHeapBag<>())
+    {
+      for (int i = 0 ; i < 1000 ; i++)
+      {
+        bag.addWithOccurrences("value" + i, i + 1);
+      }
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      try
+      {
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int thread = 0 ; thread < 4 ; thread++)
+        {
+          results.add(executor.submit(() ->
+          {
+            boolean correct = true;
+            for (int round = 0 ; round < 50 ; round++)
+            {
+              for (int i = 0 ; i < 1000 ; i++)
+              {
+                correct &= bag.countOf("value" + i) == i + 1;
+              }
+            }
+            return correct;
+          }));
+        }
+        for (Future<Boolean> result : results)
+        {
+          assertTrue(result.get());
+        }
+      }
+      finally
+      {
+        executor.shutdown();
+      }
+    }
+  }
+}
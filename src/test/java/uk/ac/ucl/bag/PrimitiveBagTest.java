@@ -0,0 +1,77 @@
+package uk.ac.ucl.bag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.PrimitiveIterator;
+
+import org.junit.Test;
+
+/**
+ * Checks the primitive bags and their Bag views.
+ */
+public class PrimitiveBagTest
+{
+  @Test
+  public void intBagCountsWithoutBoxing() throws BagException
+  {
+    IntBag bag = new IntBag();
+    for (int i = -1000 ; i < 1000 ; i++)
+    {
+      bag.addWithOccurrences(i, i & 3);
+    }
+    assertEquals(1500, bag.size());
+    assertEquals(3, bag.countOf(-1));
+    assertEquals(0, bag.countOf(0));
+    assertFalse(bag.contains(4));
+    for (int i = -1000 ; i < 1000 ; i++)
+    {
+      bag.remove(i);
+    }
+    assertEquals(1000, bag.size());
+    assertEquals(2, bag.countOf(7));
+
+    long total = 0;
+    PrimitiveIterator.OfInt all = bag.allOccurrencesIterator();
+    while (all.hasNext())
+    {
+      all.nextInt();
+      total++;
+    }
+    assertEquals(1500, total);
+  }
+
+  @Test
+  public void longBagHandlesWideKeys() throws BagException
+  {
+    LongBag bag = new LongBag();
+    bag.add(Long.MAX_VALUE);
+    bag.add(Long.MIN_VALUE);
+    bag.add(Long.MAX_VALUE);
+    bag.add(1L << 40);
+    assertEquals(3, bag.size());
+    assertEquals(2, bag.countOf(Long.MAX_VALUE));
+    bag.remove(Long.MIN_VALUE);
+    assertFalse(bag.contains(Long.MIN_VALUE));
+    assertTrue(bag.contains(1L << 40));
+  }
+
+  @Test
+  public void viewSharesContentsWithPrimitiveBag() throws BagException
+  {
+    IntBag bag = new IntBag();
+    Bag<Integer> view = bag.asBag();
+    view.addWithOccurrences(42, 3);
+    bag.add(7);
+    assertEquals(3, bag.countOf(42));
+    assertEquals(1, view.countOf(7));
+    assertEquals(2, view.size());
+    int sum = 0;
+    for (Integer value : view)
+    {
+      sum += value;
+    }
+    assertEquals(49, sum);
+  }
+}
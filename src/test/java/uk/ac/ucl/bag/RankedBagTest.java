@@ -0,0 +1,51 @@
+package uk.ac.ucl.bag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that a RankedBag keeps its values in order of count through a random mix of adds and removes.
+ */
+public class RankedBagTest
+{
+  @Test
+  public void valuesStayInDescendingCountOrder() throws BagException
+  {
+    RankedBag<Integer> ranked = new RankedBag<>();
+    HashBag<Integer> expected = new HashBag<>();
+    Random random = new Random(42);
+    for (int step = 0 ; step < 20000 ; step++)
+    {
+      int value = random.nextInt(200);
+      if (random.nextInt(3) == 0)
+      {
+        int n = random.nextInt(4);
+        assertEquals(expected.removeOccurrences(value, n), ranked.removeOccurrences(value, n));
+      }
+      else
+      {
+        int n = random.nextInt(5) + 1;
+        expected.addWithOccurrences(value, n);
+        ranked.addWithOccurrences(value, n);
+      }
+    }
+    assertEquals(expected.size(), ranked.size());
+    assertEquals(expected.totalOccurrences(), ranked.totalOccurrences());
+    int previous = Integer.MAX_VALUE;
+    Iterator<Integer> values = ranked.iterator();
+    while (values.hasNext())
+    {
+      Integer value = values.next();
+      int count = ranked.countOf(value);
+      assertEquals(expected.countOf(value), count);
+      assertTrue(count <= previous);
+      previous = count;
+    }
+    assertEquals(expected.topK(1).get(0).getCount(), ranked.topK(1).get(0).getCount());
+  }
+}
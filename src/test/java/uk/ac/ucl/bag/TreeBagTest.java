@@ -0,0 +1,69 @@
+package uk.ac.ucl.bag;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks that a TreeBag returns its values in sorted order.
+ */
+public class TreeBagTest
+{
+  @Test
+  public void iteratorsReturnValuesInAscendingOrder() throws BagException
+  {
+    Bag<String> bag = new TreeBag<>();
+    bag.add("pear");
+    bag.addWithOccurrences("apple", 2);
+    bag.add("fig");
+    bag.add("pear");
+
+    List<String> unique = new ArrayList<>();
+    for (String value : bag)
+    {
+      unique.add(value);
+    }
+    assertEquals(Arrays.asList("apple", "fig", "pear"), unique);
+
+    List<String> all = new ArrayList<>();
+    Iterator<String> iterator = bag.allOccurrencesIterator();
+    while (iterator.hasNext())
+    {
+      all.add(iterator.next());
+    }
+    assertEquals(Arrays.asList("apple", "apple", "fig", "pear", "pear"), all);
+  }
+
+  @Test
+  public void mergingSortedBagsCombinesCounts() throws BagException
+  {
+    BagFactory<Integer> factory = BagFactory.getInstance();
+    factory.setBagClass("ArrayBag");
+    Bag<Integer> evens = new TreeBag<>();
+    Bag<Integer> threes = new TreeBag<>();
+    for (int i = 0 ; i < 300 ; i += 2)
+    {
+      evens.addWithOccurrences(i, 2);
+    }
+    for (int i = 0 ; i < 300 ; i += 3)
+    {
+      threes.add(i);
+    }
+
+    Bag<Integer> all = evens.createMergedAllOccurrences(threes);
+    assertEquals(200, all.size());
+    assertEquals(3, all.countOf(6));
+    assertEquals(2, all.countOf(4));
+    assertEquals(1, all.countOf(9));
+    assertEquals(0, all.countOf(7));
+
+    Bag<Integer> unique = threes.createMergedAllUnique(evens);
+    assertEquals(200, unique.size());
+    assertEquals(1, unique.countOf(6));
+  }
+}